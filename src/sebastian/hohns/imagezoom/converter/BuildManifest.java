@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.converter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.UUID;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The manifest stored with a converted image. It records the content hash of the original and
+ * the settings of the processor, a image with a matching manifest doesn't need to be converted
+ * again.
+ * @author Sebastian Hohns
+ */
+class BuildManifest {
+
+    static final String FILE_NAME = "PyramideManifest.properties";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Calculates the SHA-256 hash of a file.
+     * @param file file to hash
+     * @return hash as hex string
+     * @throws IOException
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException(nsae.getMessage());
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Determines if a image was converted from the same original with the same settings.
+     * @param targetDir target directory of the image
+     * @param hash hash of the original image
+     * @param settings settings of the processor
+     * @return true if the manifest matches
+     */
+    static boolean matches(File targetDir, String hash, String settings) {
+        File file = new File(targetDir, FILE_NAME);
+        if (!file.exists()) {
+            return false;
+        }
+        Properties manifest = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                manifest.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return false;
+        }
+        return hash.equals(manifest.getProperty("hash")) && settings.equals(manifest.getProperty("settings"));
+    }
+
+    /**
+     * Writes the manifest of a converted image.
+     * @param targetDir target directory of the image
+     * @param source path of the original image
+     * @param hash hash of the original image
+     * @param settings settings of the processor
+     * @throws IOException
+     */
+    static void write(File targetDir, String source, String hash, String settings) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("source", source);
+        manifest.setProperty("hash", hash);
+        manifest.setProperty("settings", settings);
+        OutputStream out = new FileOutputStream(new File(targetDir, FILE_NAME));
+        try {
+            manifest.store(out, "JImagePyramide build manifest");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes the manifest, the image has to be converted again.
+     * @param targetDir target directory of the image
+     */
+    static void delete(File targetDir) {
+        new File(targetDir, FILE_NAME).delete();
+    }
+
+    /**
+     * Returns a new staging directory for a image. It has the same name as the target
+     * directory, the formats derive file names and ids from it.
+     * @param targetDir target directory of the image
+     * @return staging directory
+     */
+    static File stagingDir(File targetDir) {
+        File staging = new File(targetDir.getParentFile(), "." + targetDir.getName() + "-" + UUID.randomUUID() + ".staging");
+        return new File(staging, targetDir.getName());
+    }
+
+    /**
+     * Replaces the target directory with the staging directory. The old directory is renamed
+     * first, so readers never see a mix of the old and the new image pyramide. Between both
+     * renames the target directory is missing for a moment, a reader may find no tiles then.
+     * @param stagingDir staging directory returned by stagingDir
+     * @param targetDir target directory of the image
+     * @throws IOException
+     */
+    static void swap(File stagingDir, File targetDir) throws IOException {
+        File old = new File(targetDir.getParentFile(), "." + targetDir.getName() + "-" + UUID.randomUUID() + ".old");
+        if (targetDir.exists() && !targetDir.renameTo(old)) {
+            throw new IOException("Couldn't move " + targetDir + " aside");
+        }
+        if (!stagingDir.renameTo(targetDir)) {
+            old.renameTo(targetDir);
+            throw new IOException("Couldn't move " + stagingDir + " to " + targetDir);
+        }
+        discard(stagingDir);
+        if (old.exists()) {
+            FileUtils.deleteDirectory(old);
+        }
+    }
+
+    /**
+     * Deletes a staging directory.
+     * @param stagingDir staging directory returned by stagingDir
+     */
+    static void discard(File stagingDir) {
+        try {
+            FileUtils.deleteDirectory(stagingDir.getParentFile());
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+}
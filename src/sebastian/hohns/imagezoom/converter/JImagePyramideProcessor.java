@@ -16,21 +16,29 @@
 
 package sebastian.hohns.imagezoom.converter;
 
+import java.awt.Rectangle;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -38,15 +46,27 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import sebastian.hohns.imagezoom.exceptions.UnsupportedImageLibaryException;
+import sebastian.hohns.imagezoom.imageformats.IIIFFormat;
 import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.imageformats.TileArchive;
+import sebastian.hohns.imagezoom.imageformats.DeepZoomFormat;
+import sebastian.hohns.imagezoom.imageformats.XYZFormat;
 import sebastian.hohns.imagezoom.imageformats.ZoomifyFormat;
+import sebastian.hohns.imagezoom.imageops.GovernedOperations;
+import sebastian.hohns.imagezoom.imageops.GraphicsmagickBatchOperations;
+import sebastian.hohns.imagezoom.imageops.ImageDiff;
 import sebastian.hohns.imagezoom.imageops.GraphicsmagickOperations;
 import sebastian.hohns.imagezoom.imageops.ImageOperations;
 import sebastian.hohns.imagezoom.imageops.ImagemagickOperations;
+import sebastian.hohns.imagezoom.imageops.JavaImageIOOperations;
+import sebastian.hohns.imagezoom.imageops.ResourceGovernor;
+import sebastian.hohns.imagezoom.imageops.TileEncodingOperations;
 import sebastian.hohns.imagezoom.images.ImageLevel;
+import sebastian.hohns.imagezoom.images.ImageLevelTiles;
+import sebastian.hohns.imagezoom.images.ImageObject;
 import sebastian.hohns.imagezoom.images.ImageRow;
-import sebastian.hohns.imagezoom.images.ImageTile;
 import sebastian.hohns.imagezoom.images.OriginalImage;
+import sebastian.hohns.imagezoom.images.StreamingImage;
 
 /**
  * Transforms a given image (or a list of images) to the given image pyramide format using a given image
@@ -55,25 +75,69 @@ import sebastian.hohns.imagezoom.images.OriginalImage;
  */
 public class JImagePyramideProcessor {
 
+    /** Preparing the original image and scaling the levels. */
+    public static final String STAGE_SCALE = "scale";
+    /** Cutting the rows of the levels. */
+    public static final String STAGE_ROW = "row";
+    /** Cutting, merging and writing the tiles. */
+    public static final String STAGE_TILE = "tile";
+    /** Releasing temporary images and writing the meta data. */
+    public static final String STAGE_WRITE = "write";
+    private static final long STAGE_ADAPT_INTERVAL = 250;
+    //Minutes process waits for its jobs
+    private static final long JOB_TIMEOUT = 60;
     private ImageOperations io;
     private ImageFormat format;
-    private ExecutorService service;
+    private String imgLib;
+    private String tmpImageFormat;
+    private String resamplingFilter;
+    private volatile ExecutorService service;
+    private boolean batchTiles;
+    private boolean cascadeLevels;
+    private boolean streaming;
+    private boolean tileArchive;
+    private boolean levelTiling;
+    private boolean tileMerging;
+    private boolean buildCache;
+    private int usableThreads;
+    private boolean virtualThreads;
+    private Semaphore processLimit;
+    private Semaphore cpuLimit;
+    private Map<String, int[]> stageLimits = new HashMap<String, int[]>();
+    private volatile Map<String, StagePool> stagePools;
+    private volatile MemoryAdmission memoryAdmission;
+    private long memoryBudget;
+    private boolean resourceGovernor;
+    private ScheduledExecutorService stageController;
+    private final AtomicInteger activeJobs = new AtomicInteger();
 
     /**
      * Set properties.
-     * @param imgLib determines which image lib should be used to do the work (im4java-im = Imagemagick, im4java-gm = Graphicsmagick).
-     * @param targetFormat target file format, currently only the zoomify format is supported.
-     * @param usableThreads number of threads to use to do the calculations.
+     * @param imgLib determines which image lib should be used to do the work (im4java-im = Imagemagick, im4java-gm = Graphicsmagick, im4java-gm-batch = Graphicsmagick with persistent gm batch processes, java-imageio = pure Java).
+     * @param targetFormat target file format, zoomify (default), deepzoom, iiif or xyz.
+     * @param usableThreads number of threads to use to do the calculations, -1 for the number of processors.
      * @param tmpImageFormat image format for temporary images. Choose a format (pnm, tif) with compression to speed up calculation for the cost of higher disk usage.
      * @throws UnsupportedImageLibaryException
      */
     public JImagePyramideProcessor(String imgLib, String targetFormat, int usableThreads, String tmpImageFormat) {
-        format = new ZoomifyFormat();
+        if (targetFormat != null && (targetFormat.equalsIgnoreCase("deepzoom") || targetFormat.equalsIgnoreCase("dzi"))) {
+            format = new DeepZoomFormat();
+        } else if (targetFormat != null && targetFormat.equalsIgnoreCase("iiif")) {
+            format = new IIIFFormat();
+        } else if (targetFormat != null && targetFormat.equalsIgnoreCase("xyz")) {
+            format = new XYZFormat();
+        } else {
+            format = new ZoomifyFormat();
+        }
 
         if (imgLib.equals("im4java-im")) {
             io = new ImagemagickOperations(tmpImageFormat, false);
         } else if (imgLib.equals("im4java-gm")) {
             io = new GraphicsmagickOperations(tmpImageFormat, false);
+        } else if (imgLib.equals("im4java-gm-batch")) {
+            io = new GraphicsmagickBatchOperations(tmpImageFormat);
+        } else if (imgLib.equals("java-imageio")) {
+            io = new JavaImageIOOperations(tmpImageFormat);
         } else { //Default to imagemagick
             io = new ImagemagickOperations(tmpImageFormat, false);
         }
@@ -82,29 +146,108 @@ public class JImagePyramideProcessor {
         if (usableThreads == -1) {
             usableThreads = Runtime.getRuntime().availableProcessors();
         }
+        this.usableThreads = usableThreads;
+        this.imgLib = imgLib;
+        this.tmpImageFormat = tmpImageFormat;
         service = Executors.newFixedThreadPool(usableThreads);
     }
 
     /**
-     * Transform one single image and store the result at targetPath.
+     * Starts the transformation of one single image and returns immediately. The processor can
+     * be used for any number of jobs, all of them share the same threads.
      * @param orgImage path to the original image
      * @param targetPath target directory
-     * @return true if successful, else false
+     * @return the job, use it to wait for the result. null if the image can't be read.
      */
-    public boolean process(String orgImage, String targetPath) {
+    public PyramideJob submit(String orgImage, String targetPath) {
+        File org = new File(orgImage);
+        if (org.exists() && org.canRead() && new File(targetPath).canWrite()) {
+            PyramideJob job = new PyramideJob(this, org, targetPath + File.separator + FilenameUtils.getBaseName(org.getName()), service);
+            job.start();
+            return job;
+        }
+        return null;
+    }
+
+    /**
+     * Starts the transformation of a part of a image and returns immediately. Used by the
+     * ShardWorker, the format meta data is not written and tile archives are not supported.
+     * @param orgImage path to the original image
+     * @param targetPath target directory
+     * @param level level in the image pyramide, -1 for the whole image
+     * @param rowFrom first row of the level
+     * @param rowTo row after the last row of the level
+     * @return the job, use it to wait for the result. null if the image can't be read.
+     */
+    public PyramideJob submitShard(String orgImage, String targetPath, int level, int rowFrom, int rowTo) {
         File org = new File(orgImage);
         if (org.exists() && org.canRead() && new File(targetPath).canWrite()) {
-            OriginalImage p = new OriginalImage(org, format, io, targetPath + File.separator + FilenameUtils.getBaseName(org.getName()));
+            PyramideJob job = new PyramideJob(this, org, targetPath + File.separator + FilenameUtils.getBaseName(org.getName()), service);
+            job.setShard(level, rowFrom, rowTo);
+            job.start();
+            return job;
+        }
+        return null;
+    }
 
-            Future f = service.submit(p);
-            buildZoomlevel(p, f);
+    /**
+     * Starts rebuilding the tiles of a changed region of a image and returns immediately. The
+     * tiles intersecting the region and their ancestors in the smaller levels are written again,
+     * all other tiles of the existing image pyramide in targetPath are left untouched. Tile
+     * archives are not supported.
+     * @param orgImage path to the changed original image, same size as before
+     * @param targetPath target directory, as given to process
+     * @param region changed region in pixels of the original image
+     * @return the job, use it to wait for the result. null if the image can't be read.
+     */
+    public PyramideJob submitRegion(String orgImage, String targetPath, Rectangle region) {
+        File org = new File(orgImage);
+        if (org.exists() && org.canRead() && new File(targetPath).canWrite()) {
+            PyramideJob job = new PyramideJob(this, org, targetPath + File.separator + FilenameUtils.getBaseName(org.getName()), service);
+            job.setRegion(region);
+            job.start();
+            return job;
+        }
+        return null;
+    }
 
-            try {
-                service.shutdown();
-                service.awaitTermination(60, TimeUnit.MINUTES);
-                format.generateXMLFile(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), p.getTileCount());
-                cleanup(p.getTempPath());
+    /**
+     * Rebuilds the tiles of a changed image. The changed region is determined by comparing the
+     * image with its previous version (any format ImageIO can read).
+     * @param orgImage path to the changed original image
+     * @param previousImage path to the previous version of the original image
+     * @param targetPath target directory, as given to process
+     * @return true if successful, else false
+     */
+    public boolean processChanges(String orgImage, String previousImage, String targetPath) {
+        try {
+            Rectangle region = ImageDiff.changedRegion(orgImage, previousImage);
+            if (region == null) {
                 return true;
+            }
+            PyramideJob job = submitRegion(orgImage, targetPath, region);
+            if (job != null) {
+                return job.await(JOB_TIMEOUT, TimeUnit.MINUTES) && job.isSuccessful();
+            }
+        } catch (IOException io) {
+            io.printStackTrace();
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Transform one single image and store the result at targetPath.
+     * @param orgImage path to the original image
+     * @param targetPath target directory
+     * @return true if successful, else false
+     */
+    public boolean process(String orgImage, String targetPath) {
+        PyramideJob job = submit(orgImage, targetPath);
+        if (job != null) {
+            try {
+                return job.await(JOB_TIMEOUT, TimeUnit.MINUTES) && job.isSuccessful();
             } catch (InterruptedException ie) {
                 ie.printStackTrace();
             }
@@ -119,26 +262,26 @@ public class JImagePyramideProcessor {
      * @return true if successful, else false
      */
     public boolean process(List<String> images, String targetPath) {
-        List<OriginalImage> props = new ArrayList<OriginalImage>();
-        File org;
+        List<PyramideJob> jobs = new ArrayList<PyramideJob>();
+        boolean result = true;
         for (String orgImage : images) {
-            org = new File(orgImage);
-            if (org.exists()) {
-                OriginalImage p = new OriginalImage(org, format, io, targetPath + File.separator + FilenameUtils.getBaseName(org.getName()));
-                Future f = service.submit(p);
-                buildZoomlevel(p, f);
-                props.add(p);
+            PyramideJob job = submit(orgImage, targetPath);
+            if (job != null) {
+                jobs.add(job);
+            } else {
+                result = false;
             }
         }
 
+        //All jobs share the timeout
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(JOB_TIMEOUT);
         try {
-            service.shutdown();
-            service.awaitTermination(60, TimeUnit.MINUTES);
-            for (OriginalImage p : props) {
-                format.generateXMLFile(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), p.getTileCount());
-                cleanup(p.getTempPath());
+            for (PyramideJob job : jobs) {
+                if (!job.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS) || !job.isSuccessful()) {
+                    result = false;
+                }
             }
-            return true;
+            return result;
         } catch (InterruptedException ie) {
             ie.printStackTrace();
         }
@@ -187,87 +330,88 @@ public class JImagePyramideProcessor {
     }
 
     /**
-     * Build a level of the image pyramide.
-     * @param p object representing the original image
-     * @param orgPrepared determines if original image is prepared
+     * Called for every finished tile. Tiles of images stored in a archive are appended to the
+     * archive and deleted, or taken from memory if the image lib kept them encoded.
+     * @param p original image
+     * @param tilePath path of the tile
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return false if the tile can't be added to the archive
      */
-    public void buildZoomlevel(OriginalImage p, Future orgPrepared) {
-        //Check and wait till the image is prepared
-        if (orgPrepared != null) {
+    public boolean tileDone(OriginalImage p, String tilePath, int level, int col, int row) {
+        TileArchive archive = p.getTileArchive();
+        if (archive != null) {
             try {
-                orgPrepared.get();
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
-            } catch (ExecutionException ee) {
-                ee.printStackTrace();
-            }
-        }
-
-        ImageLevel level;
-
-        //Create all required image levels from the top
-        for (int i = p.getRequiredlevels(); i >= 1; i--) {
-            level = new ImageLevel(this, p, (p.getRequiredlevels() - i), format.scaleDimension(p.getImageWidth(), i), format.scaleDimension(p.getImageHeight(), i), p.getImagePath());
-            Future f = service.submit(level);
-
-            //Build Rows for all but the last image level
-            if (i != p.getRequiredlevels()) {
-                buildRows(p, level, f);
+                byte[] tile = io instanceof TileEncodingOperations ? ((TileEncodingOperations) io).takeEncodedTile(tilePath) : null;
+                if (tile != null) {
+                    archive.addTile(level, col, row, tile);
+                } else {
+                    archive.addTile(level, col, row, new File(tilePath));
+                    new File(tilePath).delete();
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                return false;
             }
         }
-
-        //Build rows for the original image
-        buildRows(p, new ImageLevel(this, p, (p.getRequiredlevels()), format.scaleDimension(p.getImageWidth(), 0), format.scaleDimension(p.getImageHeight(), 0), p.getImagePath()), null);
+        return true;
     }
 
     /**
-     * Cut rows form a level of the pyramide.
-     * @param p original image
-     * @param level level of the image pyramide.
-     * @param levelDone determines if the level is fully calculated.
+     * Stops the threads of this processor. Already submitted jobs are finished, but no new
+     * jobs are accepted. Waits for the jobs, with im4java-gm-batch the gm batch processes are
+     * ended afterwards.
      */
-    public void buildRows(OriginalImage p, ImageLevel level, Future levelDone) {
-        //Check and wait till the ImageLevel is ready
-        if (levelDone != null) {
-            try {
-                levelDone.get();
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
-            } catch (ExecutionException ee) {
-                ee.printStackTrace();
+    public void shutdown() {
+        try {
+            //Running jobs still hand their operations to the executors
+            synchronized (activeJobs) {
+                while (activeJobs.get() > 0) {
+                    activeJobs.wait();
+                }
             }
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
         }
-
-        //Build the required rows
-        ImageRow row;
-        for (int i = 0; i <= level.getRequiredRows(); i++) {
-            row = new ImageRow(this, p, level, level.getWidth(), format.getTileHeight(), i);
-            Future f = service.submit(row);
-            buildTiles(p, row, f);
+        service.shutdown();
+        Map<String, StagePool> pools = stagePools;
+        if (pools != null) {
+            stageController.shutdown();
+            for (StagePool pool : pools.values()) {
+                pool.shutdown();
+            }
+        }
+        try {
+            service.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (pools != null) {
+                for (StagePool pool : pools.values()) {
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+        if (io instanceof GraphicsmagickBatchOperations) {
+            ((GraphicsmagickBatchOperations) io).shutdown();
         }
     }
 
     /**
-     * Cut tiles from a row of a level.
-     * @param p original image
-     * @param row row of a level of the image pyramide.
-     * @param rowDone determines if the row is fully calculated.
+     * Called by a job when it is started.
      */
-    public void buildTiles(OriginalImage p, ImageRow row, Future rowDone) {
-        //Check and wait till the ImageRow is ready
-        if (rowDone != null) {
-            try {
-                rowDone.get();
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
-            } catch (ExecutionException ee) {
-                ee.printStackTrace();
-            }
-        }
+    void jobStarted() {
+        activeJobs.incrementAndGet();
+    }
 
-        //Cut tiles from row.
-        for (int i = 0; i <= row.getRequiredCols(); i++) {
-            service.submit(new ImageTile(this, row, p.getTargetDir() + File.separator + format.getTileGroup(p.getTargetDir(), p.incrementTileCounter()), i));
+    /**
+     * Called by a job when it has finished or failed.
+     */
+    void jobEnded() {
+        synchronized (activeJobs) {
+            if (activeJobs.decrementAndGet() == 0) {
+                activeJobs.notifyAll();
+            }
         }
     }
 
@@ -284,30 +428,399 @@ public class JImagePyramideProcessor {
     }
 
     /**
-     * Copy tiles to the target directory.
-     * @param p original image
+     * Move a tile to its final path.
      * @param source source file
-     * @param destFilename destination path to copy
+     * @param destPath destination path
+     * @return true if the tile is moved, else false
      */
-    public void moveToTargetDir(OriginalImage p, File source, String destFilename) {
+    public boolean moveToTargetDir(File source, String destPath) {
         try {
-            File targetFile = new File(p.getTargetDir() + File.separator + format.getTileGroup(p.getTargetDir(), p.incrementTileCounter()) + destFilename);
+            File targetFile = new File(destPath);
             if (targetFile.exists()) {
                 targetFile.delete();
             }
 
             //apache commons-io FileUtils
             FileUtils.moveFile(source, targetFile);
-
+            return true;
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
+        return false;
+    }
+
+    /**
+     * Cut all tiles of a row with a single image operation instead of one operation per tile.
+     * This saves a process start and a decode of the row for every tile.
+     * @param batchTiles true to cut rows in one operation
+     */
+    public void setBatchTiles(boolean batchTiles) {
+        this.batchTiles = batchTiles;
+    }
+
+    public boolean isBatchTiles() {
+        return batchTiles;
+    }
+
+    /**
+     * Scale every level from the next larger level instead of the original image. The original
+     * is only decoded once and every scale operation reads four times less pixels than the one
+     * before. Choose a lossless tmpImageFormat (tif, png), otherwise every level is re-encoded
+     * lossy.
+     * @param cascadeLevels true to scale levels from the next larger level
+     */
+    public void setCascadeLevels(boolean cascadeLevels) {
+        this.cascadeLevels = cascadeLevels;
+    }
+
+    public boolean isCascadeLevels() {
+        return cascadeLevels;
+    }
+
+    /**
+     * Run the operations in virtual threads (Java 21) instead of a fixed pool of usableThreads
+     * threads. Operations waiting for Imagemagick or Graphicsmagick then cost no platform
+     * thread. The concurrency is bounded by setProcessLimit and setCpuLimit instead, both
+     * default to usableThreads. On older Java versions a cached thread pool is used. Can only
+     * be changed while no jobs are running.
+     * @param virtualThreads true to use virtual threads
+     * @throws IllegalStateException if jobs are running
+     */
+    public synchronized void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads == this.virtualThreads) {
+            return;
+        }
+        if (activeJobs.get() > 0) {
+            throw new IllegalStateException("Virtual threads can't be changed while jobs are running");
+        }
+        service.shutdown();
+        if (virtualThreads) {
+            service = newVirtualThreadExecutor();
+            if (processLimit == null) {
+                processLimit = new Semaphore(usableThreads);
+            }
+            if (cpuLimit == null) {
+                cpuLimit = new Semaphore(usableThreads);
+            }
+        } else {
+            service = Executors.newFixedThreadPool(usableThreads);
+        }
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Limits the number of Imagemagick or Graphicsmagick processes running at the same time.
+     * @param processes maximum number of processes
+     */
+    public void setProcessLimit(int processes) {
+        this.processLimit = new Semaphore(processes);
+    }
+
+    /**
+     * Limits the number of image operations running in the JVM (java-imageio) at the same time.
+     * @param operations maximum number of operations, for example the number of processors
+     */
+    public void setCpuLimit(int operations) {
+        this.cpuLimit = new Semaphore(operations);
+    }
+
+    /**
+     * Run every stage of the conversion in its own thread pool: scaling the levels, cutting
+     * rows, cutting tiles and writing. A few large level scales can't take every thread while
+     * the tiles wait, or the reverse. The pools adapt their size every 250 ms within the
+     * bounds of setStageLimits: they grow while operations wait in their queue and the CPU has
+     * time left, and shrink when idle or when the CPU is saturated. Ignored with virtual threads.
+     * Can only be changed while no jobs are running.
+     * @param stagePools true to use a thread pool per stage
+     * @throws IllegalStateException if jobs are running
+     */
+    public synchronized void setStagePools(boolean stagePools) {
+        if (stagePools == (this.stagePools != null)) {
+            return;
+        }
+        if (activeJobs.get() > 0) {
+            throw new IllegalStateException("Stage pools can't be changed while jobs are running");
+        }
+        if (stagePools) {
+            final Map<String, StagePool> pools = new LinkedHashMap<String, StagePool>();
+            for (String stage : new String[]{STAGE_SCALE, STAGE_ROW, STAGE_TILE, STAGE_WRITE}) {
+                int[] limits = getStageLimits(stage);
+                pools.put(stage, new StagePool(stage, limits[0], limits[1]));
+            }
+            stageController = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "stage-controller");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            stageController.scheduleAtFixedRate(new Runnable() {
+
+                public void run() {
+                    double cpuLoad = StagePool.systemCpuLoad();
+                    for (StagePool pool : pools.values()) {
+                        pool.adapt(cpuLoad);
+                    }
+                }
+            }, STAGE_ADAPT_INTERVAL, STAGE_ADAPT_INTERVAL, TimeUnit.MILLISECONDS);
+            this.stagePools = pools;
+        } else {
+            stageController.shutdown();
+            for (StagePool pool : this.stagePools.values()) {
+                pool.shutdown();
+            }
+            this.stagePools = null;
+        }
+    }
+
+    public boolean isStagePools() {
+        return stagePools != null;
+    }
+
+    /**
+     * Sets the bounds of the thread pool of a stage (see setStagePools). The pool starts with
+     * the minimum. Defaults: scale and row 1 to usableThreads, tile usableThreads / 2 to
+     * 2 * usableThreads, write 1 to 2.
+     * @param stage STAGE_SCALE, STAGE_ROW, STAGE_TILE or STAGE_WRITE
+     * @param minThreads minimum number of threads, at least 1
+     * @param maxThreads maximum number of threads
+     */
+    public synchronized void setStageLimits(String stage, int minThreads, int maxThreads) {
+        stageLimits.put(stage, new int[]{Math.max(1, minThreads), Math.max(1, maxThreads)});
+        if (stagePools != null && stagePools.containsKey(stage)) {
+            stagePools.get(stage).setLimits(Math.max(1, minThreads), Math.max(1, maxThreads));
+        }
+    }
+
+    private int[] getStageLimits(String stage) {
+        if (stageLimits.containsKey(stage)) {
+            return stageLimits.get(stage);
+        } else if (STAGE_TILE.equals(stage)) {
+            return new int[]{Math.max(1, usableThreads / 2), 2 * usableThreads};
+        } else if (STAGE_WRITE.equals(stage)) {
+            return new int[]{1, 2};
+        }
+        return new int[]{1, usableThreads};
+    }
+
+    /**
+     * Returns the stage a operation belongs to.
+     * @param task the operation
+     * @return STAGE_SCALE, STAGE_ROW, STAGE_TILE or STAGE_WRITE
+     */
+    static String getStage(Runnable task) {
+        if (task instanceof OriginalImage || task instanceof ImageLevel || task instanceof ImageLevelTiles || task instanceof StreamingImage) {
+            return STAGE_SCALE;
+        } else if (task instanceof ImageRow) {
+            return STAGE_ROW;
+        } else if (task instanceof ImageObject) {
+            return STAGE_TILE;
+        }
+        return STAGE_WRITE;
+    }
+
+    /**
+     * Returns the executor a operation is run by.
+     * @param task the operation
+     * @return the pool of its stage, or the shared executor if setStagePools is off
+     */
+    Executor getExecutor(Runnable task) {
+        Map<String, StagePool> pools = stagePools;
+        if (pools == null || virtualThreads) {
+            return service;
+        }
+        return pools.get(getStage(task));
+    }
+
+    /**
+     * Limits the memory used by the operations scaling large images (the original image and the
+     * levels). Every operation is weighed by its decoded source and target image, 4 channels
+     * with 2 bytes (Imagemagick, Graphicsmagick) or 1 byte (java-imageio) each, and only started
+     * while all running ones fit into the budget. Operations that don't fit wait without taking
+     * a thread, all other operations keep running.
+     * @param bytes memory budget for all jobs of this processor, 0 for no limit
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryAdmission = bytes > 0 ? new MemoryAdmission(bytes) : null;
+        this.memoryBudget = Math.max(0, bytes);
+        setResourceGovernor(resourceGovernor);
+    }
+
+    /**
+     * Limit the internal threads and memory of every Imagemagick or Graphicsmagick process, so
+     * all processes together use as many threads as the machine has cores instead of
+     * usableThreads times the cores. Scaling a whole image gets all cores not used by other
+     * processes, cutting a row or tile gets a single thread. With setMemoryBudget the budget is
+     * shared the same way (-limit memory and map). Ignored by java-imageio.
+     * @param resourceGovernor true to limit the image lib processes
+     */
+    public void setResourceGovernor(boolean resourceGovernor) {
+        this.resourceGovernor = resourceGovernor;
+        if (io instanceof GovernedOperations) {
+            ((GovernedOperations) io).setResourceGovernor(resourceGovernor ? new ResourceGovernor(Runtime.getRuntime().availableProcessors(), memoryBudget) : null);
+        }
+    }
+
+    public boolean isResourceGovernor() {
+        return resourceGovernor;
+    }
+
+    /**
+     * Returns the admission control of setMemoryBudget.
+     * @return admission control, null if there is no memory budget
+     */
+    MemoryAdmission getMemoryAdmission() {
+        return memoryAdmission;
+    }
+
+    /**
+     * Returns the limit a operation has to pass before it runs.
+     * @param task the operation
+     * @return the limit, null if the operation is not limited
+     */
+    Semaphore getLimit(Runnable task) {
+        if (!(task instanceof ImageObject)) {
+            return null;
+        }
+        return io.usesExternalProcesses() ? processLimit : cpuLimit;
+    }
+
+    /**
+     * Creates a executor starting a virtual thread per operation. Virtual threads are available
+     * since Java 21, older versions get a cached thread pool.
+     * @return executor
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Cut only the original image into tiles and build every tile of the smaller levels from
+     * the four tiles below it, instead of scaling the original for every level. No level image
+     * is ever written and every operation works on at most four tiles, which suits very large
+     * images. Supported by Imagemagick (im4java-im) and java-imageio, not together with
+     * setTileArchive.
+     * @param tileMerging true to build the levels from the tiles
+     */
+    public void setTileMerging(boolean tileMerging) {
+        this.tileMerging = tileMerging;
+    }
+
+    public boolean isTileMerging() {
+        return tileMerging;
+    }
+
+    /**
+     * Scale and tile every level in a single image operation, without writing level and row
+     * files. Only the Imagemagick implementation (im4java-im) supports this, all others ignore
+     * the setting.
+     * @param levelTiling true to tile every level in one operation
+     */
+    public void setLevelTiling(boolean levelTiling) {
+        this.levelTiling = levelTiling;
+    }
+
+    public boolean isLevelTiling() {
+        return levelTiling;
+    }
+
+    /**
+     * Tile the original image band by band while reading it, without decoding the whole image
+     * or writing any intermediate levels and rows. Only the ImageIO implementation (java-imageio)
+     * supports this, all others ignore the setting.
+     * @param streaming true to tile images while reading them
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Keep rows in memory instead of writing them to temporary files, every row is released
+     * as soon as its last tile is cut. Rows exceeding the budget are written to files as usual.
+     * Only the ImageIO implementation (java-imageio) supports this, all others ignore the setting.
+     * @param bytes memory budget for all rows, 0 to write all rows to files
+     */
+    public void setRowMemoryBudget(long bytes) {
+        if (io instanceof JavaImageIOOperations) {
+            ((JavaImageIOOperations) io).setRowMemoryBudget(bytes);
+        }
+    }
+
+    /**
+     * Store all tiles of a image in a single archive file (see TileArchive) instead of
+     * thousands of files in tile groups. The format meta data is written as usual.
+     * @param tileArchive true to store the tiles in a archive
+     */
+    public void setTileArchive(boolean tileArchive) {
+        this.tileArchive = tileArchive;
+    }
+
+    public boolean isTileArchive() {
+        return tileArchive;
+    }
+
+    /**
+     * Sets the filter used to scale the levels, for example "Lanczos" or "Triangle".
+     * @param filter name of the resampling filter, null for the default of the image lib
+     */
+    public void setResamplingFilter(String filter) {
+        this.resamplingFilter = filter;
+        io.setResamplingFilter(filter);
+    }
+
+    /**
+     * Skip images that are unchanged since their last conversion. A manifest with the SHA-256
+     * hash of the original and the settings of the processor is stored with every image. If
+     * they match, the image is not converted again. Otherwise it's converted into a staging
+     * directory, which replaces the old image pyramide when finished.
+     * @param buildCache true to skip unchanged images
+     */
+    public void setBuildCache(boolean buildCache) {
+        this.buildCache = buildCache;
+    }
+
+    public boolean isBuildCache() {
+        return buildCache;
+    }
+
+    /**
+     * Returns all settings which change the converted image, stored in the BuildManifest.
+     * @return settings
+     */
+    String getBuildSettings() {
+        return imgLib + "," + tmpImageFormat + "," + resamplingFilter + "," + format.getClass().getName()
+                + "," + format.getTileWidth() + "x" + format.getTileHeight() + "," + format.getTileOverlap() + "," + format.getSettings()
+                + ",archive=" + tileArchive + ",streaming=" + streaming + ",merging=" + tileMerging
+                + ",leveltiling=" + levelTiling + ",cascade=" + cascadeLevels + ",batch=" + batchTiles;
     }
 
     public ImageOperations getImageOperations() {
         return io;
     }
 
+    /**
+     * Replaces the image format chosen in the constructor, for example a DeepZoomFormat with a
+     * different tile size.
+     * @param format image format of the tiles
+     */
+    public void setImageFormat(ImageFormat format) {
+        this.format = format;
+    }
+
     public ImageFormat getImageFormat() {
         return format;
     }
@@ -328,6 +841,7 @@ public class JImagePyramideProcessor {
        if(args.length==3) {         
            JImagePyramideProcessor p = new JImagePyramideProcessor(args[2], "jpg", -1, "jpg");
            p.process(args[0],args[1]);
+           p.shutdown();
        } 
     }
 }
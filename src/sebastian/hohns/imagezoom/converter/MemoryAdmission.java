@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.converter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Admission control for memory heavy operations. Every operation declares its estimated memory
+ * footprint and is only started while the sum of all running operations stays within the
+ * budget. Operations that don't fit are parked without blocking a thread and started in order
+ * as soon as enough memory is released, smaller ones may pass a parked larger one. Once the
+ * eldest parked operation was passed MAX_BYPASSES times nothing else is started before it, so
+ * it can't starve. A operation larger than the whole budget runs alone.
+ * @author Sebastian Hohns
+ */
+class MemoryAdmission {
+
+    //Number of operations that may start ahead of the eldest parked one
+    static final int MAX_BYPASSES = 8;
+    private final long budget;
+    private long used;
+    private final LinkedList<Parked> parked = new LinkedList<Parked>();
+
+    /**
+     * @param budget memory budget in bytes
+     */
+    MemoryAdmission(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Starts a operation now if it fits into the budget, or parks it.
+     * @param bytes estimated memory footprint
+     * @param start starts the operation, call release(bytes) when it's finished
+     */
+    void admit(long bytes, Runnable start) {
+        synchronized (this) {
+            if (!fits(bytes) || isStarving()) {
+                parked.add(new Parked(bytes, start));
+                return;
+            }
+            bypass();
+            used += bytes;
+        }
+        start.run();
+    }
+
+    /**
+     * Called when a operation is finished, starts the parked operations which fit now.
+     * @param bytes memory footprint given to admit
+     */
+    void release(long bytes) {
+        List<Runnable> ready = new ArrayList<Runnable>();
+        synchronized (this) {
+            used -= bytes;
+            Iterator<Parked> it = parked.iterator();
+            while (it.hasNext()) {
+                Parked next = it.next();
+                boolean eldest = next == parked.getFirst();
+                if (fits(next.bytes)) {
+                    used += next.bytes;
+                    ready.add(next.start);
+                    it.remove();
+                    if (!eldest) {
+                        bypass();
+                    }
+                } else if (eldest && isStarving()) {
+                    break;
+                }
+            }
+        }
+        for (Runnable start : ready) {
+            start.run();
+        }
+    }
+
+    private boolean fits(long bytes) {
+        return used == 0 || used + bytes <= budget;
+    }
+
+    /**
+     * Determines if the eldest parked operation was passed too often.
+     */
+    private boolean isStarving() {
+        return !parked.isEmpty() && parked.getFirst().bypasses >= MAX_BYPASSES;
+    }
+
+    /**
+     * Called when a operation starts ahead of the eldest parked one.
+     */
+    private void bypass() {
+        if (!parked.isEmpty()) {
+            parked.getFirst().bypasses++;
+        }
+    }
+
+    private static class Parked {
+
+        private final long bytes;
+        private final Runnable start;
+        private int bypasses;
+
+        Parked(long bytes, Runnable start) {
+            this.bytes = bytes;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,793 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.converter;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.imageformats.TileArchive;
+import sebastian.hohns.imagezoom.imageops.CachingOperations;
+import sebastian.hohns.imagezoom.imageops.LevelTilingOperations;
+import sebastian.hohns.imagezoom.imageops.StreamingImageOperations;
+import sebastian.hohns.imagezoom.imageops.TileEncodingOperations;
+import sebastian.hohns.imagezoom.imageops.TileMergingOperations;
+import sebastian.hohns.imagezoom.images.ImageLevel;
+import sebastian.hohns.imagezoom.images.ImageLevelTiles;
+import sebastian.hohns.imagezoom.images.ImageObject;
+import sebastian.hohns.imagezoom.images.ImageRegionTile;
+import sebastian.hohns.imagezoom.images.ImageRow;
+import sebastian.hohns.imagezoom.images.ImageTile;
+import sebastian.hohns.imagezoom.images.ImageTileBatch;
+import sebastian.hohns.imagezoom.images.ImageTileMerge;
+import sebastian.hohns.imagezoom.images.OriginalImage;
+import sebastian.hohns.imagezoom.images.StreamingImage;
+
+/**
+ * The conversion of a single image, expressed as a dependency graph of image operations
+ * (original image -> levels -> rows -> tiles). Every operation counts its missing inputs and
+ * is handed to the executor the moment the last one is calculated, so no thread ever blocks
+ * waiting for another operation and all levels are processed at the same time.
+ * @author Sebastian Hohns
+ */
+public class PyramideJob {
+
+    private JImagePyramideProcessor processor;
+    private File org;
+    private String targetDir;
+    private volatile OriginalImage p;
+    //Set if the build cache is used, the image is converted into stagingDir if not null
+    private String hash;
+    private File stagingDir;
+    private Executor executor;
+    private List<TaskNode> nodes = new ArrayList<TaskNode>();
+    private AtomicInteger remaining = new AtomicInteger();
+    private CountDownLatch finished = new CountDownLatch(1);
+    //Set if the image can't be read or a operation failed
+    private volatile boolean failed;
+    //Set for a part of a image converted by a ShardWorker, the coordinator writes the meta data
+    private boolean shard;
+    private int shardLevel = -1;
+    private int shardRowFrom;
+    private int shardRowTo;
+    //Set if only the tiles of a changed region are rebuilt
+    private Rectangle region;
+    private static final int REGION_MARGIN = 4;
+
+    PyramideJob(JImagePyramideProcessor processor, File org, String targetDir, Executor executor) {
+        this.processor = processor;
+        this.org = org;
+        this.targetDir = targetDir;
+        this.executor = executor;
+    }
+
+    /**
+     * Restricts the job to a part of the image, without writing the meta data of the format.
+     * @param level level in the image pyramide, -1 for all levels
+     * @param rowFrom first row of the level
+     * @param rowTo row after the last row of the level
+     */
+    void setShard(int level, int rowFrom, int rowTo) {
+        this.shard = true;
+        this.shardLevel = level;
+        this.shardRowFrom = rowFrom;
+        this.shardRowTo = rowTo;
+    }
+
+    /**
+     * Restricts the job to the tiles intersecting a changed region of the original image, and
+     * their ancestors in the smaller levels. All other tiles are left untouched.
+     * @param region changed region in pixels of the original image
+     */
+    void setRegion(Rectangle region) {
+        this.region = region;
+    }
+
+    /**
+     * Hands the job to the executor and returns immediately. The image size is probed on a pool
+     * thread, so the images of a batch are probed in parallel.
+     */
+    void start() {
+        processor.jobStarted();
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        build();
+                    } catch (RuntimeException re) {
+                        re.printStackTrace();
+                        failed = true;
+                        if (p != null) {
+                            if (p.getTileArchive() != null && processor.getImageOperations() instanceof TileEncodingOperations) {
+                                ((TileEncodingOperations) processor.getImageOperations()).stopEncodingInMemory(p.getArchiveTempPath());
+                            }
+                            processor.cleanup(p.getTempPath());
+                        }
+                        if (stagingDir != null) {
+                            BuildManifest.discard(stagingDir);
+                        }
+                        end();
+                    }
+                }
+            });
+        } catch (RuntimeException re) {
+            //The executor is shut down
+            failed = true;
+            end();
+            throw re;
+        }
+    }
+
+    /**
+     * Probes the original image, builds the graph and submits all operations without missing inputs.
+     */
+    private void build() {
+        String dir = targetDir;
+        if (processor.isBuildCache() && !shard) {
+            try {
+                hash = BuildManifest.hash(org);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+            if (hash != null && region == null) {
+                if (BuildManifest.matches(new File(targetDir), hash, processor.getBuildSettings())) {
+                    end();
+                    return;
+                }
+                stagingDir = BuildManifest.stagingDir(new File(targetDir));
+                dir = stagingDir.getPath();
+            } else {
+                //The tiles are changed in place, the old manifest is invalid from now on
+                BuildManifest.delete(new File(targetDir));
+            }
+        }
+
+        p = new OriginalImage(org, processor.getImageFormat(), processor.getImageOperations(), dir);
+        if (p.getImageWidth() <= 0 || p.getImageHeight() <= 0) {
+            failed = true;
+            processor.cleanup(p.getTempPath());
+            if (stagingDir != null) {
+                BuildManifest.discard(stagingDir);
+            }
+            end();
+            return;
+        }
+        if (region != null) {
+            region = region.intersection(new Rectangle(0, 0, p.getImageWidth(), p.getImageHeight()));
+        }
+
+        //A archive can't be shared by several processes
+        if (processor.isTileArchive() && !shard && region == null) {
+            try {
+                p.setTileArchive(new TileArchive(new File(p.getTargetDir(), TileArchive.FILE_NAME)));
+                new File(p.getArchiveTempPath()).mkdirs();
+                if (processor.getImageOperations() instanceof TileEncodingOperations) {
+                    ((TileEncodingOperations) processor.getImageOperations()).encodeInMemory(p.getArchiveTempPath());
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        } else {
+            processor.getImageFormat().createTileDirs(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), p.getTileCount());
+        }
+        buildZoomlevels();
+        remaining.set(nodes.size());
+
+        //The graph is complete, release the guard every node started with
+        for (TaskNode node : nodes) {
+            node.inputDone();
+        }
+    }
+
+    /**
+     * Wait until the image is converted.
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * Wait until the image is converted or the timeout is reached.
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return true if the image is converted, false if the timeout was reached
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Determines if the image is converted.
+     * @return true if finished, else false
+     */
+    public boolean isDone() {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * Determines if the image is converted without errors. Only meaningful after the job is done.
+     * @return false if the image can't be read or a operation failed
+     */
+    public boolean isSuccessful() {
+        return isDone() && !failed;
+    }
+
+    /**
+     * Returns the image converted by this job.
+     * @return original image, null until the size of the image is probed. Its target directory
+     * is the staging directory if the build cache converts the image again.
+     */
+    public OriginalImage getImage() {
+        return p;
+    }
+
+    /**
+     * Build all levels of the image pyramide.
+     */
+    private void buildZoomlevels() {
+        ImageFormat format = processor.getImageFormat();
+        TaskNode prepared = node(p);
+        ImageLevel original = new ImageLevel(processor, p, (p.getRequiredlevels()), format.scaleDimension(p.getImageWidth(), 0), format.scaleDimension(p.getImageHeight(), 0), p.getImagePath());
+        ImageLevel level;
+
+        if (shardLevel >= 0) {
+            buildShard(original, prepared);
+            return;
+        }
+        if (region != null) {
+            buildRegion(original, prepared);
+            return;
+        }
+
+        //Tile the original band by band without any intermediate images, tiles may not overlap
+        //or be padded
+        if (processor.isStreaming() && processor.getImageOperations() instanceof StreamingImageOperations && format.getTileOverlap() == 0 && !format.isPadded()) {
+            node(new StreamingImage(processor, p), prepared);
+            return;
+        }
+
+        //Build every level from the tiles of the next larger one
+        if (processor.isTileMerging() && processor.getImageOperations() instanceof TileMergingOperations && format.getTileOverlap() == 0 && !format.isPadded() && p.getTileArchive() == null) {
+            buildMergedLevels(original, prepared);
+            return;
+        }
+
+        //Scale and tile every level in one operation, without any level or row files
+        if (processor.isLevelTiling() && processor.getImageOperations() instanceof LevelTilingOperations && format.getTileOverlap() == 0 && !format.isPadded()) {
+            for (int i = p.getRequiredlevels(); i >= 0; i--) {
+                int width = format.scaleDimension(p.getImageWidth(), i);
+                int height = format.scaleDimension(p.getImageHeight(), i);
+                int cols = (int) Math.ceil(width / (double) format.getTileWidth());
+                String[] targetPaths = new String[cols * (int) Math.ceil(height / (double) format.getTileHeight())];
+                for (int j = 0; j < targetPaths.length; j++) {
+                    targetPaths[j] = tilePath(p.getRequiredlevels() - i, j % cols, j / cols);
+                }
+                node(new ImageLevelTiles(processor, p, p.getRequiredlevels() - i, width, height, targetPaths), prepared);
+            }
+            return;
+        }
+
+        //The last zoom level is the first tile of the pyramide
+        String topTilePath = null;
+        if (p.getRequiredlevels() > 0) {
+            topTilePath = tilePath(0, 0, 0);
+        }
+
+        if (processor.isCascadeLevels()) {
+            //Create all required image levels from the bottom, each one scaled from the one before
+            ImageLevel sourceLevel = original;
+            TaskNode source = prepared;
+            List<TaskNode> sourceUsers = new ArrayList<TaskNode>();
+            for (int i = 1; i <= p.getRequiredlevels(); i++) {
+                level = new ImageLevel(processor, p, (p.getRequiredlevels() - i), format.scaleDimension(p.getImageWidth(), i), format.scaleDimension(p.getImageHeight(), i));
+                level.setSourceLevel(sourceLevel);
+                TaskNode levelDone = node(level, source);
+                if (i == p.getRequiredlevels()) {
+                    level.setTilePath(topTilePath);
+                }
+
+                //The source level is needed by its rows and this level
+                if (sourceLevel != original) {
+                    sourceUsers.add(levelDone);
+                    release(sourceLevel, sourceUsers);
+                }
+
+                //Build Rows for all but the last image level
+                sourceUsers = new ArrayList<TaskNode>();
+                if (i != p.getRequiredlevels()) {
+                    sourceUsers.addAll(buildRows(level, levelDone));
+                }
+                sourceLevel = level;
+                source = levelDone;
+            }
+        } else {
+            //Create all required image levels from the top
+            for (int i = p.getRequiredlevels(); i >= 1; i--) {
+                level = new ImageLevel(processor, p, (p.getRequiredlevels() - i), format.scaleDimension(p.getImageWidth(), i), format.scaleDimension(p.getImageHeight(), i), p.getImagePath());
+                TaskNode levelDone = node(level, prepared);
+                if (i == p.getRequiredlevels()) {
+                    level.setTilePath(topTilePath);
+                }
+
+                //Build Rows for all but the last image level
+                if (i != p.getRequiredlevels()) {
+                    release(level, buildRows(level, levelDone));
+                }
+            }
+        }
+
+        //Build rows for the original image
+        buildRows(original, prepared);
+    }
+
+    /**
+     * Cuts the original image into tiles and merges every tile of the smaller levels from the
+     * four tiles below it. Each merge runs as soon as its children are written, so the levels
+     * are built bottom-up in parallel without any scaled level image.
+     * @param original level of the original image
+     * @param prepared operation preparing the original image
+     */
+    private void buildMergedLevels(ImageLevel original, TaskNode prepared) {
+        ImageFormat format = processor.getImageFormat();
+        int tileWidth = format.getTileWidth();
+        int tileHeight = format.getTileHeight();
+
+        //Tiles of the original image
+        TaskNode[][] children = new TaskNode[original.getRequiredRows()][];
+        for (int r = 0; r < children.length; r++) {
+            ImageRow row = new ImageRow(processor, p, original, original.getWidth(), tileHeight, r);
+            TaskNode rowDone = node(row, prepared);
+            List<TaskNode> tiles = buildTiles(row, rowDone);
+            release(row, tiles);
+
+            //A batch cuts all tiles of the row in one operation
+            children[r] = new TaskNode[row.getRequiredCols()];
+            for (int c = 0; c < children[r].length; c++) {
+                children[r][c] = tiles.get(Math.min(c, tiles.size() - 1));
+            }
+        }
+
+        for (int level = p.getRequiredlevels() - 1; level >= 0; level--) {
+            children = mergeLevel(level, children);
+        }
+    }
+
+    /**
+     * Merges the tiles of a level from the tiles of the next larger level. Only tiles with at
+     * least one rebuilt child are merged, the other children are read from the target directory.
+     * @param level level in the image pyramide
+     * @param children operations building the tiles of the next larger level, null for
+     * tiles which are not rebuilt
+     * @return operations merging the tiles of the level, null for tiles which are not rebuilt
+     */
+    private TaskNode[][] mergeLevel(int level, TaskNode[][] children) {
+        ImageFormat format = processor.getImageFormat();
+        int tileWidth = format.getTileWidth();
+        int tileHeight = format.getTileHeight();
+        int width = format.scaleDimension(p.getImageWidth(), p.getRequiredlevels() - level);
+        int height = format.scaleDimension(p.getImageHeight(), p.getRequiredlevels() - level);
+        TaskNode[][] parents = new TaskNode[(int) Math.ceil(height / (double) tileHeight)][(int) Math.ceil(width / (double) tileWidth)];
+
+        for (int r = 0; r < parents.length; r++) {
+            for (int c = 0; c < parents[r].length; c++) {
+                String[] childPaths = new String[4];
+                List<TaskNode> inputs = new ArrayList<TaskNode>();
+                for (int i = 0; i < 4; i++) {
+                    int childRow = 2 * r + i / 2;
+                    int childCol = 2 * c + i % 2;
+                    if (childRow < children.length && childCol < children[childRow].length) {
+                        childPaths[i] = tilePath(level + 1, childCol, childRow);
+                        if (children[childRow][childCol] != null) {
+                            inputs.add(children[childRow][childCol]);
+                        }
+                    }
+                }
+                if (!inputs.isEmpty()) {
+                    ImageTileMerge merge = new ImageTileMerge(processor, p, level, c, r, childPaths, tilePath(level, c, r), Math.min(tileWidth, width - c * tileWidth), Math.min(tileHeight, height - r * tileHeight));
+                    parents[r][c] = node(merge, inputs.toArray(new TaskNode[inputs.size()]));
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Rebuilds the tiles inside the region given by setRegion. The smaller levels are merged
+     * from the tiles below them if tile merging is on and the image lib supports it, else every
+     * tile is cut from the part of the original image below it.
+     * @param original level of the original image
+     * @param prepared operation preparing the original image
+     */
+    private void buildRegion(ImageLevel original, TaskNode prepared) {
+        ImageFormat format = processor.getImageFormat();
+        TaskNode[][] children = buildRegionTiles(original, prepared, region.x, region.y, region.x + region.width, region.y + region.height);
+
+        if (processor.isTileMerging() && processor.getImageOperations() instanceof TileMergingOperations && format.getTileOverlap() == 0 && !format.isPadded()) {
+            for (int level = p.getRequiredlevels() - 1; level >= 0; level--) {
+                children = mergeLevel(level, children);
+            }
+            return;
+        }
+
+        for (int i = 1; i <= p.getRequiredlevels(); i++) {
+            int level = p.getRequiredlevels() - i;
+            int scale = format.scaleFactor(i);
+            int cols = (int) Math.ceil(format.scaleDimension(p.getImageWidth(), i) / (double) format.getTileWidth());
+            int rows = (int) Math.ceil(format.scaleDimension(p.getImageHeight(), i) / (double) format.getTileHeight());
+            //The resampling filter reaches a few pixels beyond the scaled region
+            int colFrom = Math.max(0, (region.x / scale - REGION_MARGIN) / format.getTileWidth());
+            int colTo = Math.min(cols, (int) Math.ceil(((region.x + region.width) / scale + 1 + REGION_MARGIN) / (double) format.getTileWidth()));
+            int rowFrom = Math.max(0, (region.y / scale - REGION_MARGIN) / format.getTileHeight());
+            int rowTo = Math.min(rows, (int) Math.ceil(((region.y + region.height) / scale + 1 + REGION_MARGIN) / (double) format.getTileHeight()));
+            for (int r = rowFrom; r < rowTo; r++) {
+                for (int c = colFrom; c < colTo; c++) {
+                    node(new ImageRegionTile(processor, p, level, c, r, tilePath(level, c, r), REGION_MARGIN), prepared);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts the tiles of a level intersecting a region.
+     * @param level level of the image pyramide
+     * @param levelDone operation calculating the level
+     * @param left left edge of the region in pixels of the level
+     * @param top top edge of the region
+     * @param right right edge of the region, exclusive
+     * @param bottom bottom edge of the region, exclusive
+     * @return operations cutting the tiles, null for tiles outside the region
+     */
+    private TaskNode[][] buildRegionTiles(ImageLevel level, TaskNode levelDone, int left, int top, int right, int bottom) {
+        ImageFormat format = processor.getImageFormat();
+        int cols = (int) Math.ceil(level.getWidth() / (double) format.getTileWidth());
+        TaskNode[][] tiles = new TaskNode[level.getRequiredRows()][cols];
+        int colFrom = Math.max(0, left / format.getTileWidth());
+        int colTo = Math.min(cols, (int) Math.ceil(right / (double) format.getTileWidth()));
+        int rowFrom = Math.max(0, top / format.getTileHeight());
+        int rowTo = Math.min(tiles.length, (int) Math.ceil(bottom / (double) format.getTileHeight()));
+
+        for (int r = rowFrom; r < rowTo; r++) {
+            ImageRow row = new ImageRow(processor, p, level, level.getWidth(), format.getTileHeight(), r);
+            TaskNode rowDone = node(row, levelDone);
+            List<TaskNode> rowTiles = buildTiles(row, rowDone, colFrom, colTo);
+            release(row, rowTiles);
+            for (int c = colFrom; c < colTo; c++) {
+                tiles[r][c] = rowTiles.get(Math.min(c - colFrom, rowTiles.size() - 1));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Build the rows of a single level, as given by setShard.
+     * @param original level of the original image
+     * @param prepared operation preparing the original image
+     */
+    private void buildShard(ImageLevel original, TaskNode prepared) {
+        ImageFormat format = processor.getImageFormat();
+        int scale = p.getRequiredlevels() - shardLevel;
+        if (scale == 0) {
+            buildRows(original, prepared, shardRowFrom, shardRowTo);
+            return;
+        }
+
+        ImageLevel level = new ImageLevel(processor, p, shardLevel, format.scaleDimension(p.getImageWidth(), scale), format.scaleDimension(p.getImageHeight(), scale), p.getImagePath());
+        TaskNode levelDone = node(level, prepared);
+        if (shardLevel == 0) {
+            level.setTilePath(tilePath(0, 0, 0));
+        } else {
+            release(level, buildRows(level, levelDone, shardRowFrom, shardRowTo));
+        }
+    }
+
+    /**
+     * Cut rows form a level of the pyramide.
+     * @param level level of the image pyramide.
+     * @param levelDone operation calculating the level
+     * @return operations calculating the rows
+     */
+    private List<TaskNode> buildRows(ImageLevel level, TaskNode levelDone) {
+        return buildRows(level, levelDone, 0, level.getRequiredRows());
+    }
+
+    /**
+     * Cut some rows form a level of the pyramide.
+     * @param level level of the image pyramide.
+     * @param levelDone operation calculating the level
+     * @param rowFrom first row
+     * @param rowTo row after the last row
+     * @return operations calculating the rows
+     */
+    private List<TaskNode> buildRows(ImageLevel level, TaskNode levelDone, int rowFrom, int rowTo) {
+        List<TaskNode> rows = new ArrayList<TaskNode>();
+        for (int i = rowFrom; i < Math.min(rowTo, level.getRequiredRows()); i++) {
+            ImageRow row = new ImageRow(processor, p, level, level.getWidth(), processor.getImageFormat().getTileHeight(), i);
+            TaskNode rowDone = node(row, levelDone);
+            release(row, buildTiles(row, rowDone));
+            rows.add(rowDone);
+        }
+        return rows;
+    }
+
+    /**
+     * Cut tiles from a row of a level.
+     * @param row row of a level of the image pyramide.
+     * @param rowDone operation calculating the row
+     * @return operations cutting the tiles
+     */
+    private List<TaskNode> buildTiles(ImageRow row, TaskNode rowDone) {
+        return buildTiles(row, rowDone, 0, row.getRequiredCols());
+    }
+
+    /**
+     * Cut some tiles from a row of a level.
+     * @param row row of a level of the image pyramide.
+     * @param rowDone operation calculating the row
+     * @param colFrom first column
+     * @param colTo column after the last column
+     * @return operations cutting the tiles
+     */
+    private List<TaskNode> buildTiles(ImageRow row, TaskNode rowDone, int colFrom, int colTo) {
+        ImageFormat format = processor.getImageFormat();
+        List<TaskNode> tiles = new ArrayList<TaskNode>();
+
+        //Cut tiles from row, either all in one operation or one by one. Overlapping or padded
+        //tiles and parts of a row can't be cut in one operation.
+        if (processor.isBatchTiles() && format.getTileOverlap() == 0 && !format.isPadded() && colFrom == 0 && colTo == row.getRequiredCols()) {
+            String[] targetPaths = new String[row.getRequiredCols()];
+            for (int i = 0; i < targetPaths.length; i++) {
+                targetPaths[i] = tilePath(row.getLevel(), i, row.getRow());
+            }
+            tiles.add(node(new ImageTileBatch(processor, p, row, targetPaths), rowDone));
+        } else {
+            for (int i = colFrom; i < colTo; i++) {
+                tiles.add(node(new ImageTile(processor, row, tilePath(row.getLevel(), i, row.getRow()), i), rowDone));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns the path of a tile. Tiles stored in a archive are written to the temporary
+     * directory first.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return path of the tile
+     */
+    private String tilePath(int level, int col, int row) {
+        ImageFormat format = processor.getImageFormat();
+        if (p.getTileArchive() != null) {
+            return p.getArchiveTempPath() + "tile-" + level + "-" + col + "-" + row + format.getTileFileExtension();
+        }
+        return format.getTilePath(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), level, col, row, p.getTileIndex(level, col, row));
+    }
+
+    /**
+     * Adds a operation releasing a temporary image as soon as all its users are finished.
+     * @param image temporary level or row
+     * @param users operations reading the image
+     */
+    private void release(final ImageObject image, List<TaskNode> users) {
+        TaskNode node = node(new Runnable() {
+
+            public void run() {
+                processor.getImageOperations().release(image.getPath());
+            }
+        });
+        for (TaskNode user : users) {
+            node.dependsOn(user);
+        }
+    }
+
+    /**
+     * Adds a operation to the graph.
+     * @param task the operation
+     * @param inputs operations which need to be finished before this one can run
+     * @return node of the operation
+     */
+    private TaskNode node(Runnable task, TaskNode... inputs) {
+        TaskNode node = new TaskNode(task);
+        for (TaskNode input : inputs) {
+            node.dependsOn(input);
+        }
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Called after every finished operation. After the last one the job is finished in the
+     * write stage.
+     */
+    private void nodeDone() {
+        if (remaining.decrementAndGet() == 0) {
+            Runnable finish = new Runnable() {
+
+                public void run() {
+                    finish();
+                }
+            };
+            processor.getExecutor(finish).execute(finish);
+        }
+    }
+
+    /**
+     * Writes the format meta data and removes the temporary files.
+     */
+    private void finish() {
+        try {
+            if (p.getTileArchive() != null) {
+                if (processor.getImageOperations() instanceof TileEncodingOperations) {
+                    ((TileEncodingOperations) processor.getImageOperations()).stopEncodingInMemory(p.getArchiveTempPath());
+                }
+                try {
+                    p.getTileArchive().close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    failed = true;
+                }
+            }
+            if (!shard) {
+                processor.getImageFormat().generateXMLFile(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), p.getTileCount());
+            }
+            //A failed build keeps the previous pyramide and its manifest
+            if (failed) {
+                if (stagingDir != null) {
+                    BuildManifest.discard(stagingDir);
+                }
+            } else if (hash != null) {
+                try {
+                    BuildManifest.write(new File(p.getTargetDir()), org.getAbsolutePath(), hash, processor.getBuildSettings());
+                    if (stagingDir != null) {
+                        BuildManifest.swap(stagingDir, new File(targetDir));
+                    }
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    if (stagingDir != null) {
+                        BuildManifest.discard(stagingDir);
+                    }
+                }
+            }
+            processor.cleanup(p.getTempPath());
+        } catch (RuntimeException re) {
+            re.printStackTrace();
+            failed = true;
+        } finally {
+            nodes = null;
+            end();
+        }
+    }
+
+    /**
+     * Marks the job as done and tells the processor, only the first call counts. The decoded
+     * original is dropped, the next job reads the file again.
+     */
+    private synchronized void end() {
+        if (finished.getCount() > 0) {
+            if (processor.getImageOperations() instanceof CachingOperations) {
+                ((CachingOperations) processor.getImageOperations()).evict(org.getAbsolutePath());
+            }
+            finished.countDown();
+            processor.jobEnded();
+        }
+    }
+
+    /**
+     * Estimates the memory a operation needs for the decoded source and target image, only
+     * operations scaling a level are weighed.
+     * @param task the operation
+     * @return memory footprint in bytes, 0 if not weighed
+     */
+    private long memoryFootprint(Runnable task) {
+        long original = (long) p.getImageWidth() * p.getImageHeight();
+        long pixels;
+        if (task instanceof ImageLevel) {
+            ImageLevel level = (ImageLevel) task;
+            ImageLevel source = level.getSourceLevel();
+            pixels = (long) level.getWidth() * level.getHeight() + (source != null ? (long) source.getWidth() * source.getHeight() : original);
+        } else if (task instanceof ImageLevelTiles) {
+            pixels = (long) ((ImageLevelTiles) task).getWidth() * ((ImageLevelTiles) task).getHeight() + original;
+        } else {
+            return 0;
+        }
+        return pixels * 4 * (processor.getImageOperations().usesExternalProcesses() ? 2 : 1);
+    }
+
+    /**
+     * A operation in the graph with a counter of its missing inputs.
+     */
+    private class TaskNode implements Runnable {
+
+        private Runnable task;
+        private MemoryAdmission admission;
+        private long memory;
+        //Starts with one, the guard released by start() after the graph is complete
+        private AtomicInteger pendingInputs = new AtomicInteger(1);
+        private List<TaskNode> dependents = new ArrayList<TaskNode>();
+
+        TaskNode(Runnable task) {
+            this.task = task;
+        }
+
+        void dependsOn(TaskNode input) {
+            pendingInputs.incrementAndGet();
+            input.dependents.add(this);
+        }
+
+        void inputDone() {
+            if (pendingInputs.decrementAndGet() == 0) {
+                admission = processor.getMemoryAdmission();
+                memory = admission != null ? memoryFootprint(task) : 0;
+                if (memory > 0) {
+                    admission.admit(memory, new Runnable() {
+
+                        public void run() {
+                            submit();
+                        }
+                    });
+                } else {
+                    submit();
+                }
+            }
+        }
+
+        private void submit() {
+            processor.getExecutor(task).execute(this);
+        }
+
+        public void run() {
+            Semaphore limit = processor.getLimit(task);
+            try {
+                if (limit != null) {
+                    limit.acquireUninterruptibly();
+                }
+                try {
+                    task.run();
+                    if (task instanceof ImageObject && !((ImageObject) task).isDone()) {
+                        failed = true;
+                    }
+                } catch (RuntimeException re) {
+                    re.printStackTrace();
+                    failed = true;
+                } finally {
+                    if (limit != null) {
+                        limit.release();
+                    }
+                    if (memory > 0) {
+                        admission.release(memory);
+                    }
+                }
+            } finally {
+                for (TaskNode dependent : dependents) {
+                    dependent.inputDone();
+                }
+                nodeDone();
+            }
+        }
+    }
+}
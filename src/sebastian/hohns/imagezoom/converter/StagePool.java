@@ -0,0 +1,171 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.converter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads of one stage of the conversion (scale, row, tile or write). The pool measures how
+ * long operations wait in its queue and adapts its size between a minimum and a maximum: it
+ * grows while operations wait and the CPU has time left, and shrinks when it's idle or the CPU
+ * is saturated.
+ * @author Sebastian Hohns
+ */
+class StagePool implements Executor {
+
+    //Average queue wait above which the pool grows
+    private static final long HIGH_WAIT = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final double CPU_SATURATED = 0.95;
+    private static Method cpuLoad;
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private int minThreads;
+    private int maxThreads;
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+
+    static {
+        //com.sun.management.OperatingSystemMXBean, not available on every JVM
+        try {
+            cpuLoad = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod("getSystemCpuLoad");
+        } catch (Exception e) {
+            cpuLoad = null;
+        }
+    }
+
+    /**
+     * The pool starts with minThreads threads.
+     * @param name name of the stage, used for the thread names
+     * @param minThreads minimum number of threads
+     * @param maxThreads maximum number of threads
+     */
+    StagePool(final String name, int minThreads, int maxThreads) {
+        this.name = name;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        pool = new ThreadPoolExecutor(minThreads, Math.max(minThreads, maxThreads), 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name + "-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    public void execute(final Runnable task) {
+        final long queued = System.nanoTime();
+        pool.execute(new Runnable() {
+
+            public void run() {
+                waitTime.addAndGet(System.nanoTime() - queued);
+                started.incrementAndGet();
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Changes the bounds of the pool size.
+     * @param minThreads minimum number of threads
+     * @param maxThreads maximum number of threads
+     */
+    synchronized void setLimits(int minThreads, int maxThreads) {
+        this.minThreads = minThreads;
+        this.maxThreads = Math.max(minThreads, maxThreads);
+        resize(Math.min(this.maxThreads, Math.max(minThreads, pool.getCorePoolSize())));
+    }
+
+    /**
+     * Adapts the pool size to the queue wait measured since the last call. Called periodically.
+     * @param cpuLoad CPU utilisation of the system between 0 and 1
+     */
+    synchronized void adapt(double cpuLoad) {
+        long count = started.getAndSet(0);
+        long wait = waitTime.getAndSet(0);
+        boolean queued = !pool.getQueue().isEmpty();
+        //Nothing started while operations are queued counts as a long wait
+        boolean waiting = queued && (count == 0 || wait / count > HIGH_WAIT);
+        int size = pool.getCorePoolSize();
+
+        if (waiting && cpuLoad < CPU_SATURATED && size < maxThreads) {
+            resize(size + 1);
+        } else if (size > minThreads && ((!queued && pool.getActiveCount() < size) || (cpuLoad >= CPU_SATURATED && !waiting))) {
+            resize(size - 1);
+        }
+    }
+
+    private void resize(int size) {
+        if (size > pool.getCorePoolSize()) {
+            pool.setMaximumPoolSize(Math.max(size, maxThreads));
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(Math.max(size, maxThreads));
+        }
+    }
+
+    /**
+     * Returns the current number of threads.
+     * @return pool size
+     */
+    int getSize() {
+        return pool.getCorePoolSize();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Returns the CPU utilisation of the system, including Imagemagick and Graphicsmagick
+     * processes. Falls back to the load average if the JVM doesn't report it.
+     * @return utilisation between 0 and 1
+     */
+    static double systemCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (cpuLoad != null) {
+            try {
+                double load = ((Double) cpuLoad.invoke(os)).doubleValue();
+                if (load >= 0) {
+                    return load;
+                }
+            } catch (Exception e) {
+                //Use the load average
+            }
+        }
+        double average = os.getSystemLoadAverage();
+        return average < 0 ? 0 : Math.min(1, average / os.getAvailableProcessors());
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Format properties for the DeepZoom format, supported by OpenSeadragon, Seadragon Ajax and
+ * Silverlight MultiScaleImage. The tiles of every level are stored in NAME_files/level/col_row.jpg,
+ * level 0 is a single pixel. Tiles overlap their neighbours by a few pixels.
+ * see: http://msdn.microsoft.com/en-us/library/cc645077(VS.95).aspx
+ * @author Sebastian Hohns
+ */
+public class DeepZoomFormat implements ImageFormat {
+
+    private static final int SCALE_FACTOR = 2;
+    private int tileSize;
+    private int overlap;
+
+    /**
+     * DeepZoom format with the default settings of the DeepZoom Composer: 254 pixel tiles with
+     * one pixel overlap.
+     */
+    public DeepZoomFormat() {
+        this(254, 1);
+    }
+
+    /**
+     * @param tileSize width and height of a tile without overlap
+     * @param overlap pixels a tile overlaps its neighbours
+     */
+    public DeepZoomFormat(int tileSize, int overlap) {
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+    }
+
+    public int getTileWidth() {
+        return tileSize;
+    }
+
+    public int getTileHeight() {
+        return tileSize;
+    }
+
+    public int getTileOverlap() {
+        return overlap;
+    }
+
+    public boolean isPadded() {
+        return false;
+    }
+
+    public int getScaleFactor() {
+        return SCALE_FACTOR;
+    }
+
+    /**
+     * Calculates a dimension (x or y) for a given level. DeepZoom rounds up.
+     * @param dim a width or heigt
+     * @param level level of the pyramide
+     * @return new dimension length
+     */
+    public int scaleDimension(int dim, int level) {
+        return (int) Math.ceil(dim / (double) scaleFactor(level));
+    }
+
+    /**
+     * Calculates the scale factor for a level of the image pyramide.
+     * @param level
+     * @return scale factor
+     */
+    public int scaleFactor(int level) {
+        return (int) Math.pow(SCALE_FACTOR, level);
+    }
+
+    /**
+     * Generates a filename based on level, col and row of the tile.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return filename for a tile
+     */
+    public String generateFilename(int level, int col, int row) {
+        return col + "_" + row + getTileFileExtension();
+    }
+
+    /**
+     * Calculates the number of levels below the original image. The smallest level is a single
+     * pixel.
+     * @param width width of the original image
+     * @param height height of the original image
+     * @return number of levels
+     */
+    public int getRequiredLevels(int width, int height) {
+        return (int) Math.ceil(Math.log(Math.max(width, height)) / Math.log(2.0));
+    }
+
+    /**
+     * Calculates the path of a tile: NAME_files/level/col_row.jpg, NAME is the name of the
+     * target directory.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param tileIndex number of tiles before this one
+     * @return path of the tile
+     */
+    public String getTilePath(String targetDir, int width, int height, int level, int col, int row, int tileIndex) {
+        return filesDir(targetDir).getPath() + File.separator + level + File.separator + generateFilename(level, col, row);
+    }
+
+    /**
+     * Creates the directories of all levels.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles of all levels
+     */
+    public void createTileDirs(String targetDir, int width, int height, int tileCount) {
+        for (int level = 0; level <= getRequiredLevels(width, height); level++) {
+            new File(filesDir(targetDir), String.valueOf(level)).mkdirs();
+        }
+    }
+
+    /**
+     * DeepZoom groups the tiles by level, see getTilePath.
+     * @param basePath path to target directory
+     * @param counter number already available tiles
+     * @return empty string
+     */
+    public String getTileGroup(String basePath, int counter) {
+        return "";
+    }
+
+    /**
+     * Generates the NAME.dzi descriptor in the target directory.
+     * @param targetDir target directory
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles
+     */
+    public void generateXMLFile(String targetDir, int width, int height, int tileCount) {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(targetDir + File.separator + new File(targetDir).getName() + ".dzi");
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + tileSize + "\" Overlap=\"" + overlap + "\" Format=\"jpg\">");
+            writer.write("<Size Width=\"" + width + "\" Height=\"" + height + "\"/></Image>");
+        } catch (IOException io) {
+            io.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines the image format used for the final tiles.
+     * @return tile image format
+     */
+    public String getTileFileExtension() {
+        return ".jpg";
+    }
+
+    /**
+     * Tile size and overlap are the only parameters.
+     * @return empty string
+     */
+    public String getSettings() {
+        return "";
+    }
+
+    private File filesDir(String targetDir) {
+        return new File(targetDir, new File(targetDir).getName() + "_files");
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Format properties for static IIIF Image API (level 0) tiles, supported by Mirador, Universal
+ * Viewer, OpenSeadragon and Leaflet-IIIF. Every tile is stored as region/size/0/default.jpg, so a
+ * plain web server answers the tile requests of the viewers. The info.json lists the tile size
+ * and the scale factors.
+ * see: http://iiif.io/api/image/2.1/
+ * @author Sebastian Hohns
+ */
+public class IIIFFormat implements ImageFormat {
+
+    private static final int SCALE_FACTOR = 2;
+    private int tileSize;
+    private String baseUri;
+
+    /**
+     * IIIF format with 256 pixel tiles. The id of the image is the name of the target directory,
+     * relative to the info.json.
+     */
+    public IIIFFormat() {
+        this(256, null);
+    }
+
+    /**
+     * @param tileSize width and height of a tile
+     * @param baseUri uri the target directory is published under, the id of the image is
+     * baseUri/NAME. null for a relative id.
+     */
+    public IIIFFormat(int tileSize, String baseUri) {
+        this.tileSize = tileSize;
+        this.baseUri = baseUri;
+    }
+
+    public int getTileWidth() {
+        return tileSize;
+    }
+
+    public int getTileHeight() {
+        return tileSize;
+    }
+
+    public int getTileOverlap() {
+        return 0;
+    }
+
+    public boolean isPadded() {
+        return false;
+    }
+
+    public int getScaleFactor() {
+        return SCALE_FACTOR;
+    }
+
+    /**
+     * Calculates a dimension (x or y) for a given level. IIIF rounds up.
+     * @param dim a width or heigt
+     * @param level level of the pyramide
+     * @return new dimension length
+     */
+    public int scaleDimension(int dim, int level) {
+        return (int) Math.ceil(dim / (double) scaleFactor(level));
+    }
+
+    /**
+     * Calculates the scale factor for a level of the image pyramide.
+     * @param level
+     * @return scale factor
+     */
+    public int scaleFactor(int level) {
+        return (int) Math.pow(SCALE_FACTOR, level);
+    }
+
+    /**
+     * IIIF tiles are named by the region they cover, see getTilePath.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return filename for a tile
+     */
+    public String generateFilename(int level, int col, int row) {
+        return "default" + getTileFileExtension();
+    }
+
+    /**
+     * Calculates the number of levels below the original image. The smallest level fits into
+     * a single tile.
+     * @param width width of the original image
+     * @param height height of the original image
+     * @return number of levels
+     */
+    public int getRequiredLevels(int width, int height) {
+        return Math.max(0, (int) Math.ceil(Math.log((double) Math.max(height, width) / (tileSize * 1.0)) / Math.log(2.0)));
+    }
+
+    /**
+     * Calculates the path of a tile: x,y,w,h/w,/0/default.jpg. The region is given in pixels of
+     * the original image, the size in pixels of the level. A tile covering the whole image has
+     * the canonical region full, which level 0 viewers request.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param tileIndex number of tiles before this one
+     * @return path of the tile
+     */
+    public String getTilePath(String targetDir, int width, int height, int level, int col, int row, int tileIndex) {
+        return tileDir(targetDir, width, height, level, col, row).getPath() + File.separator + generateFilename(level, col, row);
+    }
+
+    /**
+     * Every IIIF tile has its own directory, all of them are created at once.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles of all levels
+     */
+    public void createTileDirs(String targetDir, int width, int height, int tileCount) {
+        int levels = getRequiredLevels(width, height);
+        for (int level = 0; level <= levels; level++) {
+            int cols = (int) Math.ceil(scaleDimension(width, levels - level) / (double) tileSize);
+            int rows = (int) Math.ceil(scaleDimension(height, levels - level) / (double) tileSize);
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    tileDir(targetDir, width, height, level, col, row).mkdirs();
+                }
+            }
+        }
+    }
+
+    private File tileDir(String targetDir, int width, int height, int level, int col, int row) {
+        int scale = scaleFactor(getRequiredLevels(width, height) - level);
+        int x = col * tileSize * scale;
+        int y = row * tileSize * scale;
+        int regionWidth = Math.min(tileSize * scale, width - x);
+        int regionHeight = Math.min(tileSize * scale, height - y);
+        int sizeWidth = (int) Math.ceil(regionWidth / (double) scale);
+
+        String region = x + "," + y + "," + regionWidth + "," + regionHeight;
+        if (regionWidth == width && regionHeight == height) {
+            region = "full";
+        }
+        return new File(targetDir + File.separator + region + File.separator + sizeWidth + "," + File.separator + "0");
+    }
+
+    /**
+     * IIIF has no tile groups, see getTilePath.
+     * @param basePath path to target directory
+     * @param counter number already available tiles
+     * @return empty string
+     */
+    public String getTileGroup(String basePath, int counter) {
+        return "";
+    }
+
+    /**
+     * Generates the info.json in the target directory.
+     * @param targetDir target directory
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles
+     */
+    public void generateXMLFile(String targetDir, int width, int height, int tileCount) {
+        String id = new File(targetDir).getName();
+        if (baseUri != null) {
+            id = baseUri + (baseUri.endsWith("/") ? "" : "/") + id;
+        }
+        StringBuilder scaleFactors = new StringBuilder();
+        for (int i = 0; i <= getRequiredLevels(width, height); i++) {
+            if (i > 0) {
+                scaleFactors.append(",");
+            }
+            scaleFactors.append(scaleFactor(i));
+        }
+
+        Writer writer = null;
+        try {
+            writer = new FileWriter(targetDir + File.separator + "info.json");
+            writer.write("{\n");
+            writer.write("  \"@context\": \"http://iiif.io/api/image/2/context.json\",\n");
+            writer.write("  \"@id\": \"" + id + "\",\n");
+            writer.write("  \"protocol\": \"http://iiif.io/api/image\",\n");
+            writer.write("  \"width\": " + width + ",\n");
+            writer.write("  \"height\": " + height + ",\n");
+            writer.write("  \"profile\": [\"http://iiif.io/api/image/2/level0.json\"],\n");
+            writer.write("  \"tiles\": [{\"width\": " + tileSize + ", \"height\": " + tileSize + ", \"scaleFactors\": [" + scaleFactors + "]}]\n");
+            writer.write("}\n");
+        } catch (IOException io) {
+            io.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines the image format used for the final tiles.
+     * @return tile image format
+     */
+    public String getTileFileExtension() {
+        return ".jpg";
+    }
+
+    /**
+     * The base uri is written into info.json.
+     * @return base uri
+     */
+    public String getSettings() {
+        return "baseUri=" + baseUri;
+    }
+}
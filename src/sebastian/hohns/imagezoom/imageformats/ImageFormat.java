@@ -34,6 +34,18 @@ public interface ImageFormat {
      */
     public int getTileHeight();
 
+    /**
+     * Number of pixels a tile overlaps its neighbours on every side.
+     * @return tileOverlap
+     */
+    public int getTileOverlap();
+
+    /**
+     * Determines if tiles at the right and bottom edge are padded to the full tile size.
+     * @return true if edge tiles are padded
+     */
+    public boolean isPadded();
+
     /**
      * Returns the current scale factor.
      */
@@ -62,6 +74,36 @@ public interface ImageFormat {
      */
     public String generateFilename(int level, int col, int row);
 
+    /**
+     * Calculates the number of levels below the original image.
+     * @param width width of the original image
+     * @param height height of the original image
+     * @return number of levels
+     */
+    public int getRequiredLevels(int width, int height);
+
+    /**
+     * Creates all tile directories of a image, before any tile is written.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles of all levels
+     */
+    public void createTileDirs(String targetDir, int width, int height, int tileCount);
+
+    /**
+     * Calculates the path of a tile. The directory must exist, see createTileDirs.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param tileIndex number of tiles before this one
+     * @return path of the tile
+     */
+    public String getTilePath(String targetDir, int width, int height, int level, int col, int row, int tileIndex);
+
     /**
      * Calculates in which tilegroup a tile belongs.
      * @param basePath
@@ -84,4 +126,11 @@ public interface ImageFormat {
      * @return tile image format
      */
     public String getTileFileExtension();
+
+    /**
+     * Returns the parameters of the format which change the written tiles or meta data, beside
+     * tile size and overlap. Stored in the build manifest.
+     * @return settings, empty if there are none
+     */
+    public String getSettings();
 }
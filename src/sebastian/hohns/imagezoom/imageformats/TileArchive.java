@@ -0,0 +1,128 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Stores all tiles of a image pyramide in a single file instead of thousands of small files.
+ * The file starts with a 16 byte header (magic "JIPA", version, offset of the index), followed
+ * by the tiles and the index (number of tiles, then level, column, row, offset and length of
+ * every tile). Tiles can be added from any number of threads, each one reserves its space and
+ * writes without a lock. Use TileArchiveReader to read tiles.
+ * @author Sebastian Hohns
+ */
+public class TileArchive {
+
+    public static final String FILE_NAME = "tiles.archive";
+    static final int MAGIC = 0x4a495041;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 24;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private AtomicLong position = new AtomicLong(HEADER_SIZE);
+    private List<long[]> index = new ArrayList<long[]>();
+
+    /**
+     * Creates a new archive, a existing file is overwritten.
+     * @param archive the archive file
+     * @throws IOException
+     */
+    public TileArchive(File archive) throws IOException {
+        if (archive.exists()) {
+            archive.delete();
+        }
+        file = new RandomAccessFile(archive, "rw");
+        channel = file.getChannel();
+        channel.write(header(0), 0);
+    }
+
+    /**
+     * Appends a encoded tile to the archive.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param tile encoded tile
+     * @throws IOException
+     */
+    public void addTile(int level, int col, int row, byte[] tile) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(tile);
+        long offset = position.getAndAdd(tile.length);
+
+        while (data.hasRemaining()) {
+            channel.write(data, offset + data.position());
+        }
+        synchronized (index) {
+            index.add(new long[]{level, col, row, offset, tile.length});
+        }
+    }
+
+    /**
+     * Appends a tile file to the archive, for tiles written by a external process.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param tile tile file
+     * @throws IOException
+     */
+    public void addTile(int level, int col, int row, File tile) throws IOException {
+        addTile(level, col, row, FileUtils.readFileToByteArray(tile));
+    }
+
+    /**
+     * Writes the index and closes the archive. All tiles must be added before.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            long indexOffset = position.get();
+            ByteBuffer buffer;
+            synchronized (index) {
+                buffer = ByteBuffer.allocate(4 + index.size() * INDEX_ENTRY_SIZE);
+                buffer.putInt(index.size());
+                for (long[] entry : index) {
+                    buffer.putInt((int) entry[0]).putInt((int) entry[1]).putInt((int) entry[2]);
+                    buffer.putLong(entry[3]).putInt((int) entry[4]);
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, indexOffset + buffer.position());
+            }
+            channel.write(header(indexOffset), 0);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static ByteBuffer header(long indexOffset) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(indexOffset);
+        header.flip();
+        return header;
+    }
+}
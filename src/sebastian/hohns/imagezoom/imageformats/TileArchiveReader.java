@@ -0,0 +1,108 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads tiles from a archive written by TileArchive. The index is loaded once, afterwards every
+ * tile is served with a single positional read. Safe to use from any number of threads.
+ * @author Sebastian Hohns
+ */
+public class TileArchiveReader {
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private Map<Long, long[]> index = new HashMap<Long, long[]>();
+
+    /**
+     * Opens a archive and reads its index.
+     * @param archive the archive file
+     * @throws IOException if the file isn't a tile archive
+     */
+    public TileArchiveReader(File archive) throws IOException {
+        file = new RandomAccessFile(archive, "r");
+        channel = file.getChannel();
+
+        ByteBuffer header = read(0, TileArchive.HEADER_SIZE);
+        if (header.getInt() != TileArchive.MAGIC || header.getInt() != TileArchive.VERSION) {
+            file.close();
+            throw new IOException("Not a tile archive: " + archive);
+        }
+        long indexOffset = header.getLong();
+        if (indexOffset == 0) {
+            file.close();
+            throw new IOException("Tile archive wasn't closed: " + archive);
+        }
+
+        int count = read(indexOffset, 4).getInt();
+        ByteBuffer entries = read(indexOffset + 4, count * TileArchive.INDEX_ENTRY_SIZE);
+        for (int i = 0; i < count; i++) {
+            long key = key(entries.getInt(), entries.getInt(), entries.getInt());
+            index.put(key, new long[]{entries.getLong(), entries.getInt()});
+        }
+    }
+
+    /**
+     * Reads a tile.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return the encoded tile, null if the archive doesn't contain the tile
+     * @throws IOException
+     */
+    public byte[] readTile(int level, int col, int row) throws IOException {
+        long[] entry = index.get(key(level, col, row));
+        if (entry == null) {
+            return null;
+        }
+        return read(entry[0], (int) entry[1]).array();
+    }
+
+    /**
+     * Returns the number of tiles in the archive.
+     * @return number of tiles
+     */
+    public int getTileCount() {
+        return index.size();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of tile archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long key(int level, int col, int row) {
+        return ((long) level << 48) | ((long) col << 24) | row;
+    }
+}
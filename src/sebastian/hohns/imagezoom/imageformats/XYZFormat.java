@@ -0,0 +1,187 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import javax.imageio.ImageIO;
+
+/**
+ * Format properties for the XYZ (slippy map) tile scheme used by Leaflet and OpenLayers. The
+ * tiles are stored as z/x/y.png on a power-of-two grid with the image in the top left corner,
+ * zoom level 0 is a single tile. Tiles at the right and bottom edge are padded with transparent
+ * pixels. Tiles completely outside the image are not written, the viewers should show the
+ * empty.png of the target directory instead (errorTileUrl in Leaflet).
+ * @author Sebastian Hohns
+ */
+public class XYZFormat implements ImageFormat {
+
+    private static final int TILE_WIDTH = 256;
+    private static final int TILE_HEIGHT = 256;
+    private static final int SCALE_FACTOR = 2;
+
+    public int getTileWidth() {
+        return TILE_WIDTH;
+    }
+
+    public int getTileHeight() {
+        return TILE_HEIGHT;
+    }
+
+    public int getTileOverlap() {
+        return 0;
+    }
+
+    public boolean isPadded() {
+        return true;
+    }
+
+    public int getScaleFactor() {
+        return SCALE_FACTOR;
+    }
+
+    /**
+     * Calculates a dimension (x or y) for a given level. Rounds up, so the edge pixels are kept.
+     * @param dim a width or heigt
+     * @param level level of the pyramide
+     * @return new dimension length
+     */
+    public int scaleDimension(int dim, int level) {
+        return (int) Math.ceil(dim / (double) scaleFactor(level));
+    }
+
+    /**
+     * Calculates the scale factor for a level of the image pyramide.
+     * @param level
+     * @return scale factor
+     */
+    public int scaleFactor(int level) {
+        return (int) Math.pow(SCALE_FACTOR, level);
+    }
+
+    /**
+     * Generates a filename based on level, col and row of the tile.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return filename for a tile
+     */
+    public String generateFilename(int level, int col, int row) {
+        return row + getTileFileExtension();
+    }
+
+    /**
+     * Calculates the number of levels below the original image, the maximum zoom level. The
+     * smallest level fits into a single tile.
+     * @param width width of the original image
+     * @param height height of the original image
+     * @return number of levels
+     */
+    public int getRequiredLevels(int width, int height) {
+        return Math.max(0, (int) Math.ceil(Math.log((double) Math.max(height, width) / (TILE_WIDTH * 1.0)) / Math.log(2.0)));
+    }
+
+    /**
+     * Calculates the path of a tile: z/x/y.png.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param level level in the image pyramide, the zoom level
+     * @param col column
+     * @param row row
+     * @param tileIndex number of tiles before this one
+     * @return path of the tile
+     */
+    public String getTilePath(String targetDir, int width, int height, int level, int col, int row, int tileIndex) {
+        return targetDir + File.separator + level + File.separator + col + File.separator + generateFilename(level, col, row);
+    }
+
+    /**
+     * Creates the column directories of all zoom levels, only for columns inside the image.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles of all levels
+     */
+    public void createTileDirs(String targetDir, int width, int height, int tileCount) {
+        int levels = getRequiredLevels(width, height);
+        for (int level = 0; level <= levels; level++) {
+            int cols = (int) Math.ceil(scaleDimension(width, levels - level) / (double) TILE_WIDTH);
+            for (int col = 0; col < cols; col++) {
+                new File(targetDir + File.separator + level + File.separator + col).mkdirs();
+            }
+        }
+    }
+
+    /**
+     * XYZ has no tile groups, see getTilePath.
+     * @param basePath path to target directory
+     * @param counter number already available tiles
+     * @return empty string
+     */
+    public String getTileGroup(String basePath, int counter) {
+        return "";
+    }
+
+    /**
+     * Generates a TileJSON file (tiles.json) and the empty.png shown for all tiles outside the
+     * image.
+     * @param targetDir target directory
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles
+     */
+    public void generateXMLFile(String targetDir, int width, int height, int tileCount) {
+        Writer writer = null;
+        try {
+            ImageIO.write(new BufferedImage(TILE_WIDTH, TILE_HEIGHT, BufferedImage.TYPE_INT_ARGB), "png", new File(targetDir, "empty.png"));
+            writer = new FileWriter(targetDir + File.separator + "tiles.json");
+            writer.write("{\"tilejson\": \"2.2.0\", \"scheme\": \"xyz\", \"tiles\": [\"{z}/{x}/{y}" + getTileFileExtension() + "\"], ");
+            writer.write("\"minzoom\": 0, \"maxzoom\": " + getRequiredLevels(width, height) + ", ");
+            writer.write("\"width\": " + width + ", \"height\": " + height + "}");
+        } catch (IOException io) {
+            io.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines the image format used for the final tiles. png keeps the padding transparent.
+     * @return tile image format
+     */
+    public String getTileFileExtension() {
+        return ".png";
+    }
+
+    /**
+     * The format has no parameters.
+     * @return empty string
+     */
+    public String getSettings() {
+        return "";
+    }
+}
@@ -42,6 +42,14 @@ public class ZoomifyFormat implements ImageFormat {
         return TILE_HEIGHT;
     }
 
+    public int getTileOverlap() {
+        return 0;
+    }
+
+    public boolean isPadded() {
+        return false;
+    }
+
     public int getScaleFactor() {
         return SCALE_FACTOR;
     }
@@ -72,22 +80,57 @@ public class ZoomifyFormat implements ImageFormat {
      * @param row row
      * @return filename for a tile
      */
-    public synchronized String generateFilename(int level, int col, int row) {
+    public String generateFilename(int level, int col, int row) {
         return level + "-" + row + "-" + col + ".jpg";
     }
 
     /**
-     * Calculates in which tilegroup a tile belongs. Creates the directory if required.
+     * Calculates the number of levels below the original image. The smallest level fits into
+     * a single tile.
+     * @param width width of the original image
+     * @param height height of the original image
+     * @return number of levels
+     */
+    public int getRequiredLevels(int width, int height) {
+        return Math.max(0, (int) Math.ceil(Math.log((double) Math.max(height, width) / (TILE_WIDTH * 1.0)) / Math.log(2.0)));
+    }
+
+    /**
+     * Calculates the path of a tile: TileGroupN/level-col-row.jpg, with 256 tiles per group.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param tileIndex number of tiles before this one
+     * @return path of the tile
+     */
+    public String getTilePath(String targetDir, int width, int height, int level, int col, int row, int tileIndex) {
+        return targetDir + File.separator + getTileGroup(targetDir, tileIndex) + level + "-" + col + "-" + row + getTileFileExtension();
+    }
+
+    /**
+     * Creates the tilegroups TileGroup0 to TileGroupN.
+     * @param targetDir target directory of the image
+     * @param width width of the original image
+     * @param height height of the original image
+     * @param tileCount number of tiles of all levels
+     */
+    public void createTileDirs(String targetDir, int width, int height, int tileCount) {
+        for (int i = 0; i < tileCount; i += MAX_FILES_IN_TILEGROUP) {
+            new File(targetDir + File.separator + getTileGroup(targetDir, i)).mkdirs();
+        }
+    }
+
+    /**
+     * Calculates in which tilegroup a tile belongs.
      * @param basePath path to target directory
-     * @param counter number already available tiles
+     * @param counter index of the tile
      * @return tilegroup
      */
-    public synchronized String getTileGroup(String basePath, int counter) {
-        //Create a new TileGroup if MAX_FILES_IN_TILEGROUP is reached
-        if (counter % MAX_FILES_IN_TILEGROUP == 0) {
-            new File(basePath + File.separator+ "TileGroup" + (int) Math.floor(counter / MAX_FILES_IN_TILEGROUP)).mkdirs();
-        }
-        return "TileGroup" + (int) Math.floor(counter / MAX_FILES_IN_TILEGROUP) + File.separator;
+    public String getTileGroup(String basePath, int counter) {
+        return "TileGroup" + (counter / MAX_FILES_IN_TILEGROUP) + File.separator;
     }
 
     /**
@@ -122,4 +165,12 @@ public class ZoomifyFormat implements ImageFormat {
     public String getTileFileExtension() {
         return ".jpg";
     }
+
+    /**
+     * The format has no parameters.
+     * @return empty string
+     */
+    public String getSettings() {
+        return "";
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Image operations which keep decoded images in memory. A cached image is only used as long as
+ * its file is unchanged.
+ * @author Sebastian Hohns
+ */
+public interface CachingOperations extends ImageOperations {
+
+    /**
+     * Drops the decoded image of the path from memory, unlike release the file is kept.
+     * Called for the original image when its job has ended.
+     * @param path path to the image
+     */
+    public void evict(String path);
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Image operations running in external processes which can be limited in the threads and
+ * memory they use, so all processes together don't use more than the machine has.
+ * @author Sebastian Hohns
+ */
+public interface GovernedOperations extends ImageOperations {
+
+    /**
+     * Sets the governor every operation gets its limits from.
+     * @param governor the governor, null to run the operations without limits
+     */
+    public void setResourceGovernor(ResourceGovernor governor);
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.im4java.core.CommandException;
+import org.im4java.core.GMOperation;
+
+/**
+ * Implementation for Graphicsmagick, using persistent "gm batch" processes instead of starting
+ * gm for every operation. A operation takes a idle process or starts a new one, so there are
+ * never more processes than operations running at the same time. The commands are written to
+ * stdin of the process, the result of every command is reported with the feedback of gm batch
+ * (PASS or FAIL). Call shutdown to end the processes.
+ * @author Sebastian Hohns
+ */
+public class GraphicsmagickBatchOperations extends GraphicsmagickOperations {
+
+    private static final String PASS = "PASS";
+    private static final String FAIL = "FAIL";
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private final List<Worker> idle = new ArrayList<Worker>();
+
+    public GraphicsmagickBatchOperations(String tmpImageFormat) {
+        super(tmpImageFormat, false);
+    }
+
+    /**
+     * Runs a operation with a idle gm batch process.
+     * @param op the operation
+     * @return true if successful, false else
+     */
+    @Override
+    protected boolean run(GMOperation op) {
+        try {
+            Worker w = null;
+            synchronized (workers) {
+                if (!idle.isEmpty()) {
+                    w = idle.remove(idle.size() - 1);
+                }
+            }
+            if (w == null) {
+                w = new Worker(findExecutable());
+                synchronized (workers) {
+                    workers.add(w);
+                }
+            }
+
+            try {
+                boolean result = true;
+                try {
+                    w.run(op.getCmdArgs());
+                } catch (CommandException ce) {
+                    ce.printStackTrace();
+                    result = false;
+                }
+                synchronized (workers) {
+                    idle.add(w);
+                }
+                return result;
+            } catch (IOException io) {
+                //The process died, it is not used again
+                synchronized (workers) {
+                    workers.remove(w);
+                }
+                w.close();
+                throw io;
+            }
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Ends all gm batch processes.
+     */
+    public void shutdown() {
+        synchronized (workers) {
+            for (Worker w : workers) {
+                w.close();
+            }
+            workers.clear();
+            idle.clear();
+        }
+    }
+
+    /**
+     * A gm batch process.
+     */
+    private static class Worker {
+
+        private Process process;
+        private BufferedWriter commands;
+        private BufferedReader feedback;
+
+        Worker(String gm) throws IOException {
+            ProcessBuilder builder = new ProcessBuilder(gm, "batch", "-echo", "off", "-feedback", "on", "-pass", PASS, "-fail", FAIL, "-");
+            //Error messages are read together with the feedback, so neither pipe can fill up
+            builder.redirectErrorStream(true);
+            process = builder.start();
+            commands = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+            feedback = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        }
+
+        /**
+         * Runs a convert command and waits for its feedback.
+         * @param args arguments of gm convert
+         * @throws CommandException if gm reported a failure, with its error messages
+         * @throws IOException if the process died
+         */
+        void run(List<String> args) throws IOException, CommandException {
+            StringBuilder line = new StringBuilder("convert");
+            for (String arg : args) {
+                line.append(' ').append(quote(arg));
+            }
+            commands.write(line.toString());
+            commands.newLine();
+            commands.flush();
+
+            ArrayList<String> messages = new ArrayList<String>();
+            String result;
+            while ((result = feedback.readLine()) != null) {
+                if (result.equals(PASS)) {
+                    return;
+                } else if (result.equals(FAIL)) {
+                    StringBuilder text = new StringBuilder(line);
+                    for (String message : messages) {
+                        text.append('\n').append(message);
+                    }
+                    CommandException ce = new CommandException(text.toString());
+                    ce.setErrorText(messages);
+                    throw ce;
+                }
+                messages.add(result);
+            }
+            throw new IOException("gm batch terminated");
+        }
+
+        void close() {
+            try {
+                commands.close();
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+            process.destroy();
+        }
+
+        private static String quote(String arg) {
+            return "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+}
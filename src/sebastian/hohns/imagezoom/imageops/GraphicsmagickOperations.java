@@ -22,16 +22,19 @@ import org.im4java.core.GMOperation;
 import org.im4java.core.GraphicsMagickCmd;
 import org.im4java.core.IM4JavaException;
 import org.im4java.core.Info;
+import org.im4java.process.ProcessStarter;
 
 /**
  * Implementation for Graphicsmagick. Make sure your imagemagick installation is accessible.
  * @author Sebastian Hohns
  */
-public class GraphicsmagickOperations implements ImageOperations {
+public class GraphicsmagickOperations implements GovernedOperations {
 
     private final GraphicsMagickCmd convert = new GraphicsMagickCmd("convert");
     private String tmpImageFormat;
     private boolean async;
+    private String filter;
+    private ResourceGovernor governor;
 
     public GraphicsmagickOperations(String tmpImageFormat, boolean async) {
         this.tmpImageFormat = tmpImageFormat;
@@ -50,21 +53,13 @@ public class GraphicsmagickOperations implements ImageOperations {
     public boolean scaleImage(String path, String target, int newWidth, int newHeight, int scaleFactor) {
         GMOperation op = new GMOperation();
         op.addImage(path);
+        if (filter != null) {
+            op.filter(filter);
+        }
         op.resize(newWidth, newHeight);
         op.addImage(target);
 
-        try {
-            convert.setAsyncMode(async);
-            convert.run(op);
-            return true;
-        } catch (IOException io) {
-            io.printStackTrace();
-        } catch (InterruptedException ie) {
-            ie.printStackTrace();
-        } catch (IM4JavaException im4) {
-            im4.printStackTrace();
-        }
-        return false;
+        return run(op, true);
     }
 
     /**
@@ -87,18 +82,7 @@ public class GraphicsmagickOperations implements ImageOperations {
         op.crop(width, 256, 0, yOffset - tileHeight);
         op.addImage(target);
 
-        try {
-            convert.setAsyncMode(async);
-            convert.run(op);
-            return true;
-        } catch (IOException io) {
-            io.printStackTrace();
-        } catch (InterruptedException ie) {
-            ie.printStackTrace();
-        } catch (IM4JavaException im4) {
-            im4.printStackTrace();
-        }
-        return false;
+        return run(op, false);
     }
 
     /**
@@ -117,18 +101,70 @@ public class GraphicsmagickOperations implements ImageOperations {
         op.addImage(target);
         //System.out.println("convert "+path+" -crop 256x"+rowHeight+"+"+(xOffset*256)+"+0 "+target);
 
-        try {
-            convert.setAsyncMode(async);
-            convert.run(op);
-            return true;
-        } catch (IOException io) {
-            io.printStackTrace();
-        } catch (InterruptedException ie) {
-            ie.printStackTrace();
-        } catch (IM4JavaException im4) {
-            im4.printStackTrace();
-        }
-        return false;
+        return run(op, false);
+    }
+
+    /**
+     * Cuts a region from a image. Used for tiles that are not 256x256 pixel or overlap.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region
+     * @param height height of the region
+     * @return true if successful, false else
+     */
+    public boolean crop(String path, String target, int x, int y, int width, int height) {
+        GMOperation op = new GMOperation();
+        op.addImage(path);
+        op.crop(width, height, x, y);
+        op.addImage(target);
+
+        return run(op, false);
+    }
+
+    /**
+     * Cuts a region from a image and pads it with transparent pixels at the right and bottom
+     * to the given size. Used for formats with padded edge tiles.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region and the result
+     * @param height height of the region and the result
+     * @return true if successful, false else
+     */
+    public boolean cropAndPad(String path, String target, int x, int y, int width, int height) {
+        GMOperation op = new GMOperation();
+        op.addImage(path);
+        op.crop(width, height, x, y);
+        op.p_page();
+        op.background("none");
+        op.gravity("NorthWest");
+        op.addRawArgs("-extent", width + "x" + height);
+        op.addImage(target);
+
+        return run(op, false);
+    }
+
+    /**
+     * Cuts all tiles of a image row in one operation. The tile of column n is written to
+     * targetPrefix + "-" + n + extension.
+     * @param path path to the image row
+     * @param targetPrefix path prefix of the tiles
+     * @param extension file extension of the tiles, for example ".jpg"
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param rowHeight heigh of the row
+     * @return true if successful, false else
+     */
+    public boolean cutRowIntoTiles(String path, String targetPrefix, String extension, int tileWidth, int rowHeight) {
+        GMOperation op = new GMOperation();
+        op.addImage(path);
+        op.crop(tileWidth, rowHeight);
+        op.p_adjoin();
+        op.addImage(targetPrefix + "-%d" + extension);
+
+        return run(op, false);
     }
 
     /**
@@ -153,11 +189,16 @@ public class GraphicsmagickOperations implements ImageOperations {
     }
 
      /**
-     * Returnn the dimensions of a image.
+     * Returnn the dimensions of a image. The size is read from the file header, identify
+     * is only started for formats the header parser doesn't know.
      * @param path path to the image
      * @return image dimension in format w x h.
      */
     public String determineImageDimension(String path) {
+        int[] header = ImageHeader.readDimension(path);
+        if (header != null) {
+            return header[0] + "x" + header[1];
+        }
         try {
             Info info = new Info(path);
             String size = info.getProperty("Geometry");
@@ -179,7 +220,39 @@ public class GraphicsmagickOperations implements ImageOperations {
         GMOperation op = new GMOperation();
         op.addImage(path);
         op.addImage(target);
-     
+        return run(op, true);
+    }
+
+    /**
+     * Runs a operation within the limits of the ResourceGovernor if one is set.
+     * @param op the operation
+     * @param parallel true for operations on a whole image, which get several threads
+     * @return true if successful, false else
+     */
+    private boolean run(GMOperation op, boolean parallel) {
+        ResourceGovernor limits = governor;
+        if (limits == null) {
+            return run(op);
+        }
+        int threads = limits.acquire(parallel);
+        try {
+            op.getCmdArgs().addAll(0, limits.getLimitArgs(threads, "threads"));
+            return run(op);
+        } finally {
+            limits.release(threads, parallel);
+        }
+    }
+
+    public void setResourceGovernor(ResourceGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Runs a operation with gm convert.
+     * @param op the operation
+     * @return true if successful, false else
+     */
+    protected boolean run(GMOperation op) {
         try {
             convert.setAsyncMode(async);
             convert.run(op);
@@ -193,4 +266,47 @@ public class GraphicsmagickOperations implements ImageOperations {
         }
         return false;
     }
+
+    /**
+     * Resolves the gm binary with the search path of im4java (see
+     * ProcessStarter.setGlobalSearchPath), like gm convert is found.
+     * @return path to gm, or "gm" if no search path is set
+     */
+    protected String findExecutable() {
+        String path = convert.getSearchPath();
+        if (path == null) {
+            path = ProcessStarter.getGlobalSearchPath();
+        }
+        if (path == null) {
+            return "gm";
+        }
+        try {
+            return convert.searchForCmd("gm", path);
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return "gm";
+    }
+
+    /**
+     * Sets the filter used by scaleImage, for example "Lanczos" or "Triangle". Use null
+     * for the default filter of the image lib.
+     * @param filter name of the resampling filter
+     */
+    public void setResamplingFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Called when a temporary image (a level or a row) isn't needed anymore, the file is
+     * deleted at once. Never called for the original image.
+     * @param path path to the temporary image
+     */
+    public void release(String path) {
+        new File(path).delete();
+    }
+
+    public boolean usesExternalProcesses() {
+        return true;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Pool of image buffers with a memory budget. Released buffers are kept and handed out again
+ * for images of the same size, so rows of a level don't need to be allocated again and again.
+ * @author Sebastian Hohns
+ */
+public class ImageBufferPool {
+
+    private long budget;
+    private long used;
+    private Map<String, LinkedList<BufferedImage>> free = new HashMap<String, LinkedList<BufferedImage>>();
+
+    /**
+     * @param budget maximum number of bytes of all buffers, in use or free
+     */
+    public ImageBufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns a buffer of the given size. The content of the buffer is undefined.
+     * @param width width of the image
+     * @param height height of the image
+     * @param type BufferedImage.TYPE_INT_RGB or BufferedImage.TYPE_INT_ARGB
+     * @return the buffer, null if the memory budget is exceeded
+     */
+    public synchronized BufferedImage acquire(int width, int height, int type) {
+        LinkedList<BufferedImage> buffers = free.get(key(width, height, type));
+        if (buffers != null && !buffers.isEmpty()) {
+            return buffers.removeFirst();
+        }
+
+        //Drop free buffers of other sizes if they are in the way
+        long size = size(width, height);
+        Iterator<LinkedList<BufferedImage>> it = free.values().iterator();
+        while (used + size > budget && it.hasNext()) {
+            LinkedList<BufferedImage> other = it.next();
+            while (used + size > budget && !other.isEmpty()) {
+                BufferedImage img = other.removeFirst();
+                used -= size(img.getWidth(), img.getHeight());
+            }
+        }
+
+        if (used + size > budget) {
+            return null;
+        }
+        used += size;
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Gives a buffer back to the pool.
+     * @param img buffer returned by acquire
+     */
+    public synchronized void release(BufferedImage img) {
+        String key = key(img.getWidth(), img.getHeight(), img.getType());
+        LinkedList<BufferedImage> buffers = free.get(key);
+        if (buffers == null) {
+            buffers = new LinkedList<BufferedImage>();
+            free.put(key, buffers);
+        }
+        buffers.add(img);
+    }
+
+    /**
+     * Returns the number of bytes of all buffers, in use or free.
+     * @return used bytes
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    private static String key(int width, int height, int type) {
+        return width + "x" + height + "-" + type;
+    }
+
+    private static long size(int width, int height) {
+        return (long) width * height * 4;
+    }
+}
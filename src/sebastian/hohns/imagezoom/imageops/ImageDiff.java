@@ -0,0 +1,107 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Determines the region in which two versions of a image differ. Both images are read in bands,
+ * so only two bands are in memory at any time.
+ * @author Sebastian Hohns
+ */
+public class ImageDiff {
+
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * Compares two images of the same size pixel by pixel.
+     * @param path path to the new image
+     * @param previousPath path to the previous image
+     * @return bounding box of all changed pixels, null if the images are equal
+     * @throws IOException if the images can't be read or their sizes differ
+     */
+    public static Rectangle changedRegion(String path, String previousPath) throws IOException {
+        ImageReader reader = open(path);
+        ImageReader previous = open(previousPath);
+        try {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if (width != previous.getWidth(0) || height != previous.getHeight(0)) {
+                throw new IOException("Image size changed, " + path + " has to be converted again");
+            }
+
+            int left = width, top = height, right = -1, bottom = -1;
+            int[] line = new int[width];
+            int[] previousLine = new int[width];
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (int y = 0; y < height; y += BAND_HEIGHT) {
+                param.setSourceRegion(new Rectangle(0, y, width, Math.min(BAND_HEIGHT, height - y)));
+                BufferedImage band = reader.read(0, param);
+                BufferedImage previousBand = previous.read(0, param);
+                for (int j = 0; j < band.getHeight(); j++) {
+                    band.getRGB(0, j, width, 1, line, 0, width);
+                    previousBand.getRGB(0, j, width, 1, previousLine, 0, width);
+                    for (int x = 0; x < width; x++) {
+                        if (line[x] != previousLine[x]) {
+                            left = Math.min(left, x);
+                            right = Math.max(right, x);
+                            top = Math.min(top, y + j);
+                            bottom = y + j;
+                        }
+                    }
+                }
+            }
+
+            if (right < 0) {
+                return null;
+            }
+            return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+        } finally {
+            close(reader);
+            close(previous);
+        }
+    }
+
+    private static ImageReader open(String path) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(new File(path));
+        if (in == null) {
+            throw new IOException("Image " + path + " can't be read");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            in.close();
+            throw new IOException("No ImageIO reader found for " + path);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in);
+        return reader;
+    }
+
+    private static void close(ImageReader reader) throws IOException {
+        ImageInputStream in = (ImageInputStream) reader.getInput();
+        reader.dispose();
+        in.close();
+    }
+}
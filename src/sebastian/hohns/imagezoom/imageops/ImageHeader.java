@@ -0,0 +1,170 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads the size of a image from its file header, without decoding the image or starting a
+ * external process. Supports jpeg, png, tiff, gif and bmp.
+ * @author Sebastian Hohns
+ */
+public class ImageHeader {
+
+    /**
+     * Reads the size of a image.
+     * @param path path to the image
+     * @return width and height, null if the format is not supported or the header is broken
+     */
+    public static int[] readDimension(String path) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(new File(path), "r");
+            int b1 = in.read();
+            int b2 = in.read();
+            if (b1 == 0xff && b2 == 0xd8) {
+                return readJpeg(in);
+            } else if (b1 == 0x89 && b2 == 'P') {
+                return readPng(in);
+            } else if ((b1 == 'I' && b2 == 'I') || (b1 == 'M' && b2 == 'M')) {
+                return readTiff(in, b1 == 'I');
+            } else if (b1 == 'G' && b2 == 'I') {
+                return readGif(in);
+            } else if (b1 == 'B' && b2 == 'M') {
+                return readBmp(in);
+            }
+        } catch (IOException io) {
+            //Broken or truncated header, let the image lib try
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walks the markers up to the first start of frame (SOFn) marker.
+     */
+    private static int[] readJpeg(RandomAccessFile in) throws IOException {
+        while (true) {
+            int marker = in.read();
+            if (marker != 0xff) {
+                return null;
+            }
+            //Fill bytes
+            while (marker == 0xff) {
+                marker = in.read();
+            }
+            if (marker < 0 || marker == 0xd9 || marker == 0xda) {
+                return null;
+            }
+            //Markers without a segment
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                continue;
+            }
+
+            int length = in.readUnsignedShort();
+            if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                in.skipBytes(1);
+                int height = in.readUnsignedShort();
+                int width = in.readUnsignedShort();
+                return new int[]{width, height};
+            }
+            in.seek(in.getFilePointer() + length - 2);
+        }
+    }
+
+    /**
+     * The IHDR chunk directly follows the signature.
+     */
+    private static int[] readPng(RandomAccessFile in) throws IOException {
+        in.seek(12);
+        if (in.readInt() != 0x49484452) {
+            return null;
+        }
+        return new int[]{in.readInt(), in.readInt()};
+    }
+
+    /**
+     * Reads the ImageWidth and ImageLength tags of the first IFD.
+     */
+    private static int[] readTiff(RandomAccessFile in, boolean littleEndian) throws IOException {
+        if (readShort(in, littleEndian) != 42) {
+            return null;
+        }
+        in.seek(readInt(in, littleEndian) & 0xffffffffL);
+        int entries = readShort(in, littleEndian);
+        int width = -1;
+        int height = -1;
+        for (int i = 0; i < entries && (width < 0 || height < 0); i++) {
+            int tag = readShort(in, littleEndian);
+            int type = readShort(in, littleEndian);
+            in.skipBytes(4);
+            //SHORT values are left aligned in the value field
+            int value = type == 3 ? readShort(in, littleEndian) : readInt(in, littleEndian);
+            if (type == 3) {
+                in.skipBytes(2);
+            }
+            if (tag == 256) {
+                width = value;
+            } else if (tag == 257) {
+                height = value;
+            }
+        }
+        if (width < 0 || height < 0) {
+            return null;
+        }
+        return new int[]{width, height};
+    }
+
+    /**
+     * The logical screen size follows the signature.
+     */
+    private static int[] readGif(RandomAccessFile in) throws IOException {
+        in.seek(6);
+        return new int[]{readShort(in, true), readShort(in, true)};
+    }
+
+    /**
+     * Reads the size from the DIB header, the height is negative for top-down bitmaps.
+     */
+    private static int[] readBmp(RandomAccessFile in) throws IOException {
+        in.seek(14);
+        int headerSize = readInt(in, true);
+        if (headerSize == 12) {
+            return new int[]{readShort(in, true), readShort(in, true)};
+        }
+        return new int[]{readInt(in, true), Math.abs(readInt(in, true))};
+    }
+
+    private static int readShort(RandomAccessFile in, boolean littleEndian) throws IOException {
+        int value = in.readUnsignedShort();
+        return littleEndian ? ((value & 0xff) << 8) | (value >>> 8) : value;
+    }
+
+    private static int readInt(RandomAccessFile in, boolean littleEndian) throws IOException {
+        int value = in.readInt();
+        return littleEndian ? Integer.reverseBytes(value) : value;
+    }
+}
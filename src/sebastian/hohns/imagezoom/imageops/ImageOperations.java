@@ -58,6 +58,43 @@ public interface ImageOperations {
      */
     public boolean cutTile(String path, String target, int maxWidth, int rowHeight, int xOffset);
 
+    /**
+     * Cuts a region from a image. Used for tiles that are not 256x256 pixel or overlap.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region
+     * @param height height of the region
+     * @return true if successful, false else
+     */
+    public boolean crop(String path, String target, int x, int y, int width, int height);
+
+    /**
+     * Cuts a region from a image and pads it with transparent pixels at the right and bottom
+     * to the given size. Used for formats with padded edge tiles.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region and the result
+     * @param height height of the region and the result
+     * @return true if successful, false else
+     */
+    public boolean cropAndPad(String path, String target, int x, int y, int width, int height);
+
+    /**
+     * Cuts all tiles of a image row in one operation. The tile of column n is written to
+     * targetPrefix + "-" + n + extension.
+     * @param path path to the image row
+     * @param targetPrefix path prefix of the tiles
+     * @param extension file extension of the tiles, for example ".jpg"
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param rowHeight heigh of the row
+     * @return true if successful, false else
+     */
+    public boolean cutRowIntoTiles(String path, String targetPrefix, String extension, int tileWidth, int rowHeight);
+
     /**
      * Prepares the original image according to the settings of the choosen image format. For example
      * to change the image format from tiff to jpeg.
@@ -89,4 +126,25 @@ public interface ImageOperations {
      * @return true if successful, else false
      */
     public boolean transformToTargetFormat(String path, String targetExtension);
+
+    /**
+     * Sets the filter used by scaleImage, for example "Lanczos" or "Triangle". Use null
+     * for the default filter of the image lib.
+     * @param filter name of the resampling filter
+     */
+    public void setResamplingFilter(String filter);
+
+    /**
+     * Called when a temporary image (a level or a row) isn't needed anymore, to free the
+     * resources it uses. Never called for the original image.
+     * @param path path to the temporary image
+     */
+    public void release(String path);
+
+    /**
+     * Determines if the operations run in external processes (Imagemagick, Graphicsmagick) or
+     * in the JVM.
+     * @return true for external processes
+     */
+    public boolean usesExternalProcesses();
 }
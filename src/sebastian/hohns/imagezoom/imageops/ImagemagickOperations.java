@@ -27,11 +27,14 @@ import org.im4java.core.Info;
  * Implementation for Imagemagick. Make sure your imagemagick installation is accessible.
  * @author Sebastian Hohns
  */
-public class ImagemagickOperations implements ImageOperations {
+public class ImagemagickOperations implements LevelTilingOperations, TileMergingOperations, GovernedOperations {
 
     private final ConvertCmd convert = new ConvertCmd();
     private String tmpImageFormat;
     private boolean async;
+    private String filter;
+    private ResourceGovernor governor;
+
     public ImagemagickOperations(String tmpImageFormat, boolean async) {
         this.tmpImageFormat = tmpImageFormat;
         this.async = async;
@@ -49,21 +52,13 @@ public class ImagemagickOperations implements ImageOperations {
     public boolean scaleImage(String path, String target, int newWidth, int newHeight, int scaleFactor) {
         IMOperation op = new IMOperation();
         op.addImage(path);
+        if (filter != null) {
+            op.filter(filter);
+        }
         op.resize(newWidth, newHeight);
         op.addImage(target);
 
-        try {
-            convert.setAsyncMode(async);
-            convert.run(op);
-            return true;
-        } catch (IOException io) {
-            io.printStackTrace();
-        } catch (InterruptedException ie) {
-            ie.printStackTrace();
-        } catch (IM4JavaException im4) {
-            im4.printStackTrace();
-        }
-        return false;
+        return run(op, true);
     }
 
     /**
@@ -86,18 +81,7 @@ public class ImagemagickOperations implements ImageOperations {
         op.crop(width, 256, 0, yOffset - tileHeight);
         op.addImage(target);
 
-        try {
-            convert.setAsyncMode(async);
-            convert.run(op);
-            return true;
-        } catch (IOException io) {
-            io.printStackTrace();
-        } catch (InterruptedException ie) {
-            ie.printStackTrace();
-        } catch (IM4JavaException im4) {
-            im4.printStackTrace();
-        }
-        return false;
+        return run(op, false);
     }
 
     /**
@@ -116,18 +100,136 @@ public class ImagemagickOperations implements ImageOperations {
         op.addImage(target);
         //System.out.println("convert "+path+" -crop 256x"+rowHeight+"+"+(xOffset*256)+"+0 "+target);
 
-        try {
-            convert.setAsyncMode(async);
-            convert.run(op);
-            return true;
-        } catch (IOException io) {
-            io.printStackTrace();
-        } catch (InterruptedException ie) {
-            ie.printStackTrace();
-        } catch (IM4JavaException im4) {
-            im4.printStackTrace();
+        return run(op, false);
+    }
+
+    /**
+     * Cuts a region from a image. Used for tiles that are not 256x256 pixel or overlap.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region
+     * @param height height of the region
+     * @return true if successful, false else
+     */
+    public boolean crop(String path, String target, int x, int y, int width, int height) {
+        IMOperation op = new IMOperation();
+        op.addImage(path);
+        op.crop(width, height, x, y);
+        op.p_repage();
+        op.addImage(target);
+
+        return run(op, false);
+    }
+
+    /**
+     * Cuts a region from a image and pads it with transparent pixels at the right and bottom
+     * to the given size. Used for formats with padded edge tiles.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region and the result
+     * @param height height of the region and the result
+     * @return true if successful, false else
+     */
+    public boolean cropAndPad(String path, String target, int x, int y, int width, int height) {
+        IMOperation op = new IMOperation();
+        op.addImage(path);
+        op.crop(width, height, x, y);
+        op.p_repage();
+        op.background("none");
+        op.gravity("NorthWest");
+        op.extent(width, height);
+        op.addImage(target);
+
+        return run(op, false);
+    }
+
+    /**
+     * Cuts all tiles of a image row in one operation. The tile of column n is written to
+     * targetPrefix + "-" + n + extension.
+     * @param path path to the image row
+     * @param targetPrefix path prefix of the tiles
+     * @param extension file extension of the tiles, for example ".jpg"
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param rowHeight heigh of the row
+     * @return true if successful, false else
+     */
+    public boolean cutRowIntoTiles(String path, String targetPrefix, String extension, int tileWidth, int rowHeight) {
+        IMOperation op = new IMOperation();
+        op.addImage(path);
+        op.crop(tileWidth, rowHeight);
+        op.p_repage();
+        op.addImage(targetPrefix + "-%d" + extension);
+
+        return run(op, false);
+    }
+
+    /**
+     * Scales the image to the size of the level and cuts it into tiles in one convert. The
+     * scaled level is kept in the memory register mpr:level, only the tiles are written.
+     * @param path path to the original image
+     * @param targetPrefix path prefix of the tiles
+     * @param extension file extension of the tiles, for example ".jpg"
+     * @param width width of the level, 0 to keep the size of the image
+     * @param height height of the level, 0 to keep the size of the image
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param tileHeight height of a single tile (see ImageFormat)
+     * @return true if successful, false else
+     */
+    public boolean scaleAndTile(String path, String targetPrefix, String extension, int width, int height, int tileWidth, int tileHeight) {
+        IMOperation op = new IMOperation();
+        op.addImage(path);
+        if (width > 0 && height > 0) {
+            if (filter != null) {
+                op.filter(filter);
+            }
+            op.resize(width, height);
         }
-        return false;
+        op.write("mpr:level");
+        op.p_delete();
+        op.addImage("mpr:level");
+        op.crop(tileWidth, tileHeight);
+        op.p_repage();
+        op.p_adjoin();
+        op.addImage(targetPrefix + "-%d" + extension);
+
+        return run(op, true);
+    }
+
+    /**
+     * Stitches up to four tiles together and scales the result down to half its size.
+     * @param children paths of the top left, top right, bottom left and bottom right tile,
+     * null for tiles outside the image. The top left tile always exists.
+     * @param target target path
+     * @param width width of the result
+     * @param height height of the result
+     * @return true if successful, false else
+     */
+    public boolean mergeTiles(String[] children, String target, int width, int height) {
+        IMOperation op = new IMOperation();
+        //( tl tr +append ) ( bl br +append ) -append
+        for (int i = 0; i < children.length; i += 2) {
+            if (children[i] != null) {
+                op.openOperation();
+                op.addImage(children[i]);
+                if (children[i + 1] != null) {
+                    op.addImage(children[i + 1]);
+                    op.p_append();
+                }
+                op.closeOperation();
+            }
+        }
+        op.append();
+        if (filter != null) {
+            op.filter(filter);
+        }
+        op.resize(width, height, '!');
+        op.addImage(target);
+
+        return run(op, false);
     }
 
     /**
@@ -152,11 +254,16 @@ public class ImagemagickOperations implements ImageOperations {
     }
 
     /**
-     * Returns the dimensions of a image.
+     * Returns the dimensions of a image. The size is read from the file header, identify
+     * is only started for formats the header parser doesn't know.
      * @param path path to the image
      * @return image dimension in format w x h.
      */
     public String determineImageDimension(String path) {
+        int[] header = ImageHeader.readDimension(path);
+        if (header != null) {
+            return header[0] + "x" + header[1];
+        }
         try {
             Info info = new Info(path);
             String size = info.getProperty("Geometry");
@@ -178,7 +285,22 @@ public class ImagemagickOperations implements ImageOperations {
         IMOperation op = new IMOperation();
         op.addImage(path);
         op.write(target);
+        return run(op, true);
+    }
+
+    /**
+     * Runs a operation with convert, within the limits of the ResourceGovernor if one is set.
+     * @param op the operation
+     * @param parallel true for operations on a whole image, which get several threads
+     * @return true if successful, false else
+     */
+    private boolean run(IMOperation op, boolean parallel) {
+        ResourceGovernor limits = governor;
+        int threads = limits != null ? limits.acquire(parallel) : 0;
         try {
+            if (limits != null) {
+                op.getCmdArgs().addAll(0, limits.getLimitArgs(threads, "thread"));
+            }
             convert.setAsyncMode(async);
             convert.run(op);
             return true;
@@ -188,7 +310,37 @@ public class ImagemagickOperations implements ImageOperations {
             ie.printStackTrace();
         } catch (IM4JavaException im4) {
             im4.printStackTrace();
+        } finally {
+            if (limits != null) {
+                limits.release(threads, parallel);
+            }
         }
         return false;
     }
+
+    public void setResourceGovernor(ResourceGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Sets the filter used by scaleImage, for example "Lanczos" or "Triangle". Use null
+     * for the default filter of the image lib.
+     * @param filter name of the resampling filter
+     */
+    public void setResamplingFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Called when a temporary image (a level or a row) isn't needed anymore, the file is
+     * deleted at once. Never called for the original image.
+     * @param path path to the temporary image
+     */
+    public void release(String path) {
+        new File(path).delete();
+    }
+
+    public boolean usesExternalProcesses() {
+        return true;
+    }
 }
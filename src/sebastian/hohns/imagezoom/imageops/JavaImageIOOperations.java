@@ -0,0 +1,875 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Pure Java implementation based on ImageIO. No external binaries are required, all images
+ * are scaled and cut inside the JVM. Decoded levels and rows are kept in memory (as soft
+ * references, so the garbage collector can reclaim them under memory pressure) and tiles are
+ * cut from them without decoding the row file again. Images too large for the heap can be
+ * tiled band by band with streamTiles. Use "raw" as tmpImageFormat to store levels and rows as
+ * uncompressed RawRaster files, rows and tiles are then cut from them without any decoding.
+ * With a row memory budget, rows aren't written at all but kept in pooled buffers until
+ * their last tile is cut. Tiles written into a directory given to encodeInMemory are kept
+ * encoded in memory instead of files.
+ * @author Sebastian Hohns
+ */
+public class JavaImageIOOperations implements StreamingImageOperations, TileMergingOperations, TileEncodingOperations, CachingOperations {
+
+    private static final int TILE_WIDTH = 256;
+    private static final int TILE_HEIGHT = 256;
+    private static final float JPEG_QUALITY = 0.9f;
+    private String tmpImageFormat;
+    private Object interpolation = RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+    private boolean progressive = true;
+    private final ConcurrentHashMap<String, Decoded> decoded = new ConcurrentHashMap<String, Decoded>();
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentHashMap<String, BufferedImage> rows = new ConcurrentHashMap<String, BufferedImage>();
+    private ImageBufferPool rowBuffers;
+    private final ConcurrentHashMap<String, Boolean> memoryDirs = new ConcurrentHashMap<String, Boolean>();
+    private final ConcurrentHashMap<String, byte[]> encoded = new ConcurrentHashMap<String, byte[]>();
+
+    public JavaImageIOOperations(String tmpImageFormat) {
+        //ImageIO picks the writer by file extension, so make sure there is one
+        this.tmpImageFormat = tmpImageFormat.startsWith(".") ? tmpImageFormat : "." + tmpImageFormat;
+    }
+
+    /**
+     * Scales the image down to a new size.
+     * @param path path to original image
+     * @param target target path
+     * @param newWidth
+     * @param newHeight
+     * @param scaleFactor
+     * @return true if successful, false else
+     */
+    public boolean scaleImage(String path, String target, int newWidth, int newHeight, int scaleFactor) {
+        try {
+            BufferedImage scaled = scale(load(path), newWidth, newHeight, interpolation, progressive);
+            write(scaled, target);
+            remember(target, scaled);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Cuts a row from a given image level.
+     * @param path path to the image level
+     * @param target target path
+     * @param yOffset offset
+     * @param maxHeight max hight of the row (see ImageFormat)
+     * @param width with of the row
+     * @param tileHeight heigh of the row
+     * @return true if successful, false else
+     */
+    public boolean cutRow(String path, String target, int yOffset, int maxHeight, int width, int tileHeight) {
+        if (yOffset + TILE_HEIGHT > maxHeight) {
+            tileHeight = yOffset - maxHeight;
+        }
+
+        try {
+            int y = yOffset - tileHeight;
+
+            //Keep the row in memory as long as the budget allows it
+            if (rowBuffers != null && cutRowToMemory(path, target, y, width)) {
+                return true;
+            }
+
+            //Full lines of a raw raster are copied without decoding
+            if (RawRaster.isRawRaster(path) && RawRaster.isRawRaster(target)) {
+                RawRaster level = RawRaster.open(new File(path));
+                int rowHeight = Math.min(TILE_HEIGHT, level.getHeight() - y);
+                if (width >= level.getWidth() && y >= 0 && rowHeight > 0) {
+                    level.copyLines(y, rowHeight, new File(target));
+                    return true;
+                }
+            }
+
+            BufferedImage level = load(path);
+            int rowWidth = Math.min(width, level.getWidth());
+            int rowHeight = Math.min(TILE_HEIGHT, level.getHeight() - y);
+            if (y < 0 || rowWidth <= 0 || rowHeight <= 0) {
+                return false;
+            }
+
+            BufferedImage row = copy(level, 0, y, rowWidth, rowHeight);
+            write(row, target);
+            remember(target, row);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Cuts a row into a pooled buffer instead of a file.
+     * @return true if the row is in memory, false if the budget is exceeded
+     */
+    private boolean cutRowToMemory(String path, String target, int y, int width) throws IOException {
+        BufferedImage row;
+        if (RawRaster.isRawRaster(path) && cached(path) == null) {
+            RawRaster level = RawRaster.open(new File(path));
+            row = acquireRow(Math.min(width, level.getWidth()), level.getHeight() - y, level.getImageType());
+            if (row == null) {
+                return false;
+            }
+            level.read(0, y, row);
+        } else {
+            BufferedImage level = load(path);
+            row = acquireRow(Math.min(width, level.getWidth()), level.getHeight() - y, level.getType());
+            if (row == null) {
+                return false;
+            }
+            Graphics2D g = row.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(level, 0, 0, row.getWidth(), row.getHeight(), 0, y, row.getWidth(), y + row.getHeight(), null);
+            g.dispose();
+        }
+        rows.put(target, row);
+        return true;
+    }
+
+    private BufferedImage acquireRow(int width, int height, int type) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return rowBuffers.acquire(width, Math.min(TILE_HEIGHT, height), type);
+    }
+
+    /**
+     * Cuts a tile from a image row.
+     * @param path path to the image row
+     * @param target target path
+     * @param maxWidth max width of the tile (see ImageFormat)
+     * @param rowHeight heigh of the row
+     * @param xOffset offset
+     * @return true if successful, false else
+     */
+    public boolean cutTile(String path, String target, int maxWidth, int rowHeight, int xOffset) {
+        try {
+            //Read only the tile from a raw raster
+            if (RawRaster.isRawRaster(path) && cached(path) == null && !rows.containsKey(path)) {
+                RawRaster row = RawRaster.open(new File(path));
+                int x = xOffset * TILE_WIDTH;
+                int tileWidth = Math.min(TILE_WIDTH, row.getWidth() - x);
+                if (tileWidth <= 0) {
+                    return false;
+                }
+
+                write(row.read(x, 0, tileWidth, Math.min(rowHeight, row.getHeight())), target);
+                return true;
+            }
+
+            BufferedImage row = load(path);
+            int x = xOffset * TILE_WIDTH;
+            int tileWidth = Math.min(TILE_WIDTH, row.getWidth() - x);
+            if (tileWidth <= 0) {
+                return false;
+            }
+
+            write(row.getSubimage(x, 0, tileWidth, Math.min(rowHeight, row.getHeight())), target);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Cuts a region from a image. Used for tiles that are not 256x256 pixel or overlap.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region
+     * @param height height of the region
+     * @return true if successful, false else
+     */
+    public boolean crop(String path, String target, int x, int y, int width, int height) {
+        try {
+            //Read only the region from a raw raster
+            if (RawRaster.isRawRaster(path) && cached(path) == null && !rows.containsKey(path)) {
+                RawRaster img = RawRaster.open(new File(path));
+                width = Math.min(width, img.getWidth() - x);
+                height = Math.min(height, img.getHeight() - y);
+                if (width <= 0 || height <= 0) {
+                    return false;
+                }
+                write(img.read(x, y, width, height), target);
+                return true;
+            }
+
+            BufferedImage img = load(path);
+            width = Math.min(width, img.getWidth() - x);
+            height = Math.min(height, img.getHeight() - y);
+            if (width <= 0 || height <= 0) {
+                return false;
+            }
+
+            BufferedImage region = copy(img, x, y, width, height);
+            write(region, target);
+            remember(target, region);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Cuts a region from a image and pads it with transparent pixels at the right and bottom
+     * to the given size. Used for formats with padded edge tiles.
+     * @param path path to the image
+     * @param target target path
+     * @param x left edge of the region
+     * @param y top edge of the region
+     * @param width width of the region and the result
+     * @param height height of the region and the result
+     * @return true if successful, false else
+     */
+    public boolean cropAndPad(String path, String target, int x, int y, int width, int height) {
+        try {
+            BufferedImage img = load(path);
+            int regionWidth = Math.min(width, img.getWidth() - x);
+            int regionHeight = Math.min(height, img.getHeight() - y);
+            if (regionWidth <= 0 || regionHeight <= 0) {
+                return false;
+            }
+
+            BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = tile.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(img, 0, 0, regionWidth, regionHeight, x, y, x + regionWidth, y + regionHeight, null);
+            g.dispose();
+            write(tile, target);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Stitches up to four tiles together and scales the result down to half its size.
+     * @param children paths of the top left, top right, bottom left and bottom right tile,
+     * null for tiles outside the image. The top left tile always exists.
+     * @param target target path
+     * @param width width of the result
+     * @param height height of the result
+     * @return true if successful, false else
+     */
+    public boolean mergeTiles(String[] children, String target, int width, int height) {
+        try {
+            BufferedImage[] tiles = new BufferedImage[children.length];
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null) {
+                    BufferedImage read = ImageIO.read(new File(children[i]));
+                    if (read == null) {
+                        throw new IOException("No ImageIO reader found for " + children[i]);
+                    }
+                    tiles[i] = normalize(read);
+                }
+            }
+            int left = tiles[0].getWidth();
+            int top = tiles[0].getHeight();
+            int right = tiles[1] != null ? tiles[1].getWidth() : 0;
+            int bottom = tiles[2] != null ? tiles[2].getHeight() : 0;
+
+            BufferedImage merged = new BufferedImage(left + right, top + bottom, tiles[0].getType());
+            Graphics2D g = merged.createGraphics();
+            for (int i = 0; i < tiles.length; i++) {
+                if (tiles[i] != null) {
+                    g.drawImage(tiles[i], (i % 2) * left, (i / 2) * top, null);
+                }
+            }
+            g.dispose();
+
+            //Halving rounds up, formats rounding down need one pixel less
+            BufferedImage tile = halve(merged, Math.min(width, (merged.getWidth() + 1) / 2));
+            if (tile.getWidth() != width || tile.getHeight() != height) {
+                tile = copy(tile, 0, 0, Math.min(width, tile.getWidth()), Math.min(height, tile.getHeight()));
+            }
+            write(tile, target);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Cuts all tiles of a image row in one operation. The tile of column n is written to
+     * targetPrefix + "-" + n + extension.
+     * @param path path to the image row
+     * @param targetPrefix path prefix of the tiles
+     * @param extension file extension of the tiles, for example ".jpg"
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param rowHeight heigh of the row
+     * @return true if successful, false else
+     */
+    public boolean cutRowIntoTiles(String path, String targetPrefix, String extension, int tileWidth, int rowHeight) {
+        try {
+            BufferedImage row = load(path);
+            int height = Math.min(rowHeight, row.getHeight());
+            for (int x = 0, col = 0; x < row.getWidth(); x += tileWidth, col++) {
+                write(row.getSubimage(x, 0, Math.min(tileWidth, row.getWidth() - x), height), targetPrefix + "-" + col + extension);
+            }
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the image band by band and writes the tiles of all levels of the image pyramide.
+     * Every band is scaled down into the band of the next smaller level, which is written as
+     * soon as it is complete. At most two bands per level are in memory, O(width * tileHeight)
+     * instead of O(width * height). Formats with random access like stripped or tiled tiff
+     * profit most, sequential formats like jpeg are decoded up to the band for every band.
+     * @param path path to the original image
+     * @param widths width of every level, from the smallest level to the original image
+     * @param heights height of every level, from the smallest level to the original image
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param tileHeight height of a single tile (see ImageFormat)
+     * @param target determines the path of every tile
+     * @return true if successful, false else
+     */
+    public boolean streamTiles(String path, int[] widths, int[] heights, int tileWidth, int tileHeight, TileTarget target) {
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(new File(path));
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No ImageIO reader found for " + path);
+            }
+            reader = readers.next();
+            reader.setInput(in);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+
+            //One band per level, from the original down to the last level
+            StreamLevel top = null;
+            for (int level = 0; level < widths.length; level++) {
+                if (widths[level] > 0 && heights[level] > 0) {
+                    top = new StreamLevel(level, widths[level], heights[level], tileWidth, tileHeight, target, top);
+                }
+            }
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            for (int y = 0; y < height; y += tileHeight) {
+                param.setSourceRegion(new Rectangle(0, y, width, Math.min(tileHeight, height - y)));
+                top.append(normalize(reader.read(0, param)));
+            }
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prepares the original image according to the settings of the choosen image format. For example
+     * to change the image format from tiff to jpeg.
+     * @param path path to the original image
+     * @param tmpPath path to the tmp folder
+     * @param filename target filename
+     * @return prepared file
+     */
+    public File prepareOriginalImage(String path, String tmpPath, String filename) {
+        return new File(path);
+    }
+
+    /**
+     * Returns the dimensions of a image. Only the image header is read.
+     * @param path path to the image
+     * @return image dimension in format w x h.
+     */
+    public String determineImageDimension(String path) {
+        ImageInputStream in = null;
+        try {
+            if (RawRaster.isRawRaster(path)) {
+                RawRaster raster = RawRaster.open(new File(path));
+                return raster.getWidth() + "x" + raster.getHeight();
+            }
+
+            in = ImageIO.createImageInputStream(new File(path));
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(in, true, true);
+                    return reader.getWidth(0) + "x" + reader.getHeight(0);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException io) {
+            io.printStackTrace();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the file extension used for temporary files like a image row. You get a
+     * performance boost if you choose a uncompressed format for the cost of disk space.
+     * @return file extension, for example ".jpg"
+     */
+    public String tmpFileExtension() {
+        return tmpImageFormat;
+    }
+
+    /**
+     * Transforms a given image to a different file format.
+     * @param path path to the image
+     * @param targetExtension new target extension
+     * @return true if successful, else false
+     */
+    public boolean transformToTargetFormat(String path, String targetExtension) {
+        String target = path.substring(0, path.lastIndexOf(".")) + targetExtension;
+        try {
+            write(load(path), target);
+            return true;
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Sets the filter used by scaleImage. Java2D only knows three interpolations, so the
+     * Imagemagick filter names are mapped to the closest one: "Point" and "Box" use nearest
+     * neighbor, the cubic filters ("Cubic", "Catrom", "Mitchell", "Lanczos") use bicubic
+     * and everything else bilinear interpolation.
+     * @param filter name of the resampling filter
+     */
+    public void setResamplingFilter(String filter) {
+        String name = filter != null ? filter.toLowerCase() : "";
+        progressive = true;
+        if (name.equals("point") || name.equals("box")) {
+            interpolation = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+            progressive = false;
+        } else if (name.equals("cubic") || name.equals("catrom") || name.equals("mitchell") || name.equals("lanczos")) {
+            interpolation = RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+        } else {
+            interpolation = RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+        }
+    }
+
+    /**
+     * Keep rows in memory instead of writing them to temporary files. Rows exceeding the budget
+     * are written to files as usual.
+     * @param bytes memory budget for all rows, 0 to write all rows to files
+     */
+    public void setRowMemoryBudget(long bytes) {
+        rowBuffers = bytes > 0 ? new ImageBufferPool(bytes) : null;
+    }
+
+    /**
+     * Called when a temporary image (a level or a row) isn't needed anymore. The row buffer
+     * is given back to the pool and the file, if any, is deleted.
+     * @param path path to the temporary image
+     */
+    public void release(String path) {
+        BufferedImage row = rows.remove(path);
+        if (row != null) {
+            rowBuffers.release(row);
+        }
+        decoded.remove(path);
+        locks.remove(path);
+        new File(path).delete();
+    }
+
+    public void evict(String path) {
+        decoded.remove(path);
+        locks.remove(path);
+    }
+
+    public void encodeInMemory(String directory) {
+        memoryDirs.put(new File(directory).getPath(), Boolean.TRUE);
+    }
+
+    public void stopEncodingInMemory(String directory) {
+        String dir = new File(directory).getPath();
+        memoryDirs.remove(dir);
+        for (Iterator<String> i = encoded.keySet().iterator(); i.hasNext();) {
+            if (dir.equals(new File(i.next()).getParent())) {
+                i.remove();
+            }
+        }
+    }
+
+    public byte[] takeEncodedTile(String path) {
+        return encoded.remove(new File(path).getPath());
+    }
+
+    /**
+     * Returns the decoded image for the given path. Images decoded or written by this class are
+     * served from memory as long as the garbage collector didn't reclaim them and the file
+     * wasn't changed since.
+     * @param path path to the image
+     * @return decoded image
+     * @throws IOException if the image can't be read
+     */
+    private BufferedImage load(String path) throws IOException {
+        BufferedImage img = cached(path);
+        if (img != null) {
+            return img;
+        }
+
+        //Only one thread decodes a given file, all others wait for the result
+        Object lock = locks.get(path);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = locks.putIfAbsent(path, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            img = cached(path);
+            if (img == null && RawRaster.isRawRaster(path)) {
+                RawRaster raster = RawRaster.open(new File(path));
+                img = raster.read(0, 0, raster.getWidth(), raster.getHeight());
+                remember(path, img);
+            } else if (img == null) {
+                BufferedImage read = ImageIO.read(new File(path));
+                if (read == null) {
+                    throw new IOException("No ImageIO reader found for " + path);
+                }
+                img = normalize(read);
+                remember(path, img);
+            }
+        }
+        return img;
+    }
+
+    private BufferedImage cached(String path) {
+        BufferedImage row = rows.get(path);
+        if (row != null) {
+            return row;
+        }
+        Decoded entry = decoded.get(path);
+        if (entry == null) {
+            return null;
+        }
+        File file = new File(path);
+        if (file.lastModified() != entry.lastModified || file.length() != entry.length) {
+            decoded.remove(path, entry);
+            return null;
+        }
+        return entry.image.get();
+    }
+
+    private void remember(String path, BufferedImage img) {
+        File file = new File(path);
+        decoded.put(path, new Decoded(img, file.lastModified(), file.length()));
+    }
+
+    /**
+     * Converts the image into a int packed rgb(a) image. Java2D is fast on these types and they
+     * can be written by all ImageIO writers.
+     * @param img decoded image
+     * @return normalized image
+     */
+    private static BufferedImage normalize(BufferedImage img) {
+        int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if (img.getType() == type) {
+            return img;
+        }
+        BufferedImage result = new BufferedImage(img.getWidth(), img.getHeight(), type);
+        Graphics2D g = result.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
+    /**
+     * Copies a region of the image, so the result doesn't keep the whole source raster alive.
+     */
+    private static BufferedImage copy(BufferedImage img, int x, int y, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, img.getType());
+        Graphics2D g = result.createGraphics();
+        g.drawImage(img, 0, 0, width, height, x, y, x + width, y + height, null);
+        g.dispose();
+        return result;
+    }
+
+    /**
+     * Scales the image to the given size. If progressive is set, large reductions are done in
+     * several steps, halving the image each time, which gives results close to a area average
+     * filter at a fraction of the cost.
+     */
+    private static BufferedImage scale(BufferedImage img, int newWidth, int newHeight, Object interpolation, boolean progressive) {
+        newWidth = Math.max(1, newWidth);
+        newHeight = Math.max(1, newHeight);
+        BufferedImage current = img;
+        int w = img.getWidth();
+        int h = img.getHeight();
+
+        do {
+            if (progressive && w / 2 >= newWidth && h / 2 >= newHeight) {
+                w = w / 2;
+                h = h / 2;
+            } else {
+                w = newWidth;
+                h = newHeight;
+            }
+
+            BufferedImage step = new BufferedImage(w, h, img.getType());
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = step;
+        } while (w != newWidth || h != newHeight);
+
+        return current;
+    }
+
+    /**
+     * Writes the image, the file format is determined by the file extension of the target.
+     * ".raw" writes a RawRaster. Images in a directory given to encodeInMemory are kept in memory.
+     */
+    private void write(BufferedImage img, String target) throws IOException {
+        String extension = FilenameUtils.getExtension(target).toLowerCase();
+        if (extension.equals(RawRaster.EXTENSION)) {
+            RawRaster.write(img, new File(target));
+            return;
+        }
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(extension);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer found for " + target);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        boolean jpeg = extension.equals("jpg") || extension.equals("jpeg");
+
+        if (jpeg) {
+            //jpeg doesn't support transparency
+            if (img.getColorModel().hasAlpha()) {
+                BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = rgb.createGraphics();
+                g.drawImage(img, 0, 0, Color.WHITE, null);
+                g.dispose();
+                img = rgb;
+            }
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+        }
+
+        File file = new File(target);
+        ByteArrayOutputStream memory = null;
+        ImageOutputStream out;
+        if (file.getParent() != null && memoryDirs.containsKey(file.getParent())) {
+            memory = new ByteArrayOutputStream();
+            out = new MemoryCacheImageOutputStream(memory);
+        } else {
+            if (file.exists()) {
+                file.delete();
+            }
+            out = ImageIO.createImageOutputStream(file);
+        }
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), jpeg ? param : null);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        if (memory != null) {
+            encoded.put(file.getPath(), memory.toByteArray());
+        }
+    }
+
+    /**
+     * Scales a band down to half its size. Every pixel is the average of four source pixels,
+     * the last line and column are repeated at odd edges. Lines not needed by the next level
+     * are dropped there.
+     * @param band band to scale
+     * @param width width of the result, about half the width of the band
+     * @return scaled band
+     */
+    private static BufferedImage halve(BufferedImage band, int width) {
+        int srcWidth = band.getWidth();
+        int height = (band.getHeight() + 1) / 2;
+        BufferedImage result = new BufferedImage(width, height, band.getType());
+        int[] src = new int[srcWidth * 2];
+        int[] dst = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            band.getRGB(0, y * 2, srcWidth, 1, src, 0, srcWidth);
+            band.getRGB(0, Math.min(y * 2 + 1, band.getHeight() - 1), srcWidth, 1, src, srcWidth, srcWidth);
+            for (int x = 0; x < width; x++) {
+                int x1 = Math.min(x * 2, srcWidth - 1);
+                int x2 = Math.min(x * 2 + 1, srcWidth - 1);
+                int p1 = src[x1];
+                int p2 = src[x2];
+                int p3 = src[srcWidth + x1];
+                int p4 = src[srcWidth + x2];
+                int pixel = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((p1 >>> shift) & 0xff) + ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff) + ((p4 >>> shift) & 0xff);
+                    pixel |= ((sum + 2) / 4) << shift;
+                }
+                dst[x] = pixel;
+            }
+            result.setRGB(0, y, width, 1, dst, 0, width);
+        }
+        return result;
+    }
+
+    /**
+     * The band of one level while streaming. Collects lines until a row of tiles is complete,
+     * writes the tiles and passes the band scaled down to the next smaller level.
+     */
+    private class StreamLevel {
+
+        private int level;
+        private int width;
+        private int height;
+        private int tileWidth;
+        private int tileHeight;
+        private TileTarget target;
+        private StreamLevel next;
+        private BufferedImage band;
+        private int filled;
+        private int row;
+
+        StreamLevel(int level, int width, int height, int tileWidth, int tileHeight, TileTarget target, StreamLevel next) {
+            this.level = level;
+            this.width = width;
+            this.height = height;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.target = target;
+            this.next = next;
+        }
+
+        /**
+         * Adds lines at the bottom of the band.
+         * @param lines image with the width of this level
+         * @throws IOException if a tile can't be written
+         */
+        void append(BufferedImage lines) throws IOException {
+            int copied = 0;
+            while (copied < lines.getHeight() && row * tileHeight < height) {
+                if (band == null) {
+                    band = new BufferedImage(width, Math.min(tileHeight, height - row * tileHeight), lines.getType());
+                    filled = 0;
+                }
+
+                int count = Math.min(lines.getHeight() - copied, band.getHeight() - filled);
+                Graphics2D g = band.createGraphics();
+                g.drawImage(lines, 0, filled, width, filled + count, 0, copied, width, copied + count, null);
+                g.dispose();
+                filled += count;
+                copied += count;
+
+                if (filled == band.getHeight()) {
+                    flush();
+                }
+            }
+        }
+
+        /**
+         * Writes all tiles of the complete band and passes it on to the next level.
+         */
+        private void flush() throws IOException {
+            for (int x = 0, col = 0; x < width; x += tileWidth, col++) {
+                String path = target.getTilePath(level, col, row);
+                write(band.getSubimage(x, 0, Math.min(tileWidth, width - x), band.getHeight()), path);
+                target.tileWritten(path, level, col, row);
+            }
+            if (next != null) {
+                next.append(halve(band, next.width));
+            }
+            band = null;
+            row++;
+        }
+    }
+
+    public boolean usesExternalProcesses() {
+        return false;
+    }
+
+    /**
+     * A decoded image and the modification time and size its file had.
+     */
+    private static class Decoded {
+
+        private final SoftReference<BufferedImage> image;
+        private final long lastModified;
+        private final long length;
+
+        Decoded(BufferedImage image, long lastModified, long length) {
+            this.image = new SoftReference<BufferedImage>(image);
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
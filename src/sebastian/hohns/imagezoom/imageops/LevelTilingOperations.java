@@ -0,0 +1,39 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Image operations which can scale a image and cut it into tiles in a single operation, so a
+ * level is decoded once and no level or row files are written.
+ * @author Sebastian Hohns
+ */
+public interface LevelTilingOperations extends ImageOperations {
+
+    /**
+     * Scales the image to the size of the level and cuts it into tiles. The tiles are numbered
+     * row by row, tile n is written to targetPrefix + "-" + n + extension.
+     * @param path path to the original image
+     * @param targetPrefix path prefix of the tiles
+     * @param extension file extension of the tiles, for example ".jpg"
+     * @param width width of the level, 0 to keep the size of the image
+     * @param height height of the level, 0 to keep the size of the image
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param tileHeight height of a single tile (see ImageFormat)
+     * @return true if successful, false else
+     */
+    public boolean scaleAndTile(String path, String targetPrefix, String extension, int width, int height, int tileWidth, int tileHeight);
+}
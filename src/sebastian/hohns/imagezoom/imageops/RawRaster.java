@@ -0,0 +1,237 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Uncompressed raster file used for temporary images. The file starts with a 16 byte header
+ * (magic "JIPR", width, height, number of channels) followed by the interleaved rgb or rgba
+ * pixels, line by line. Regions are read line by line at their file offset, so there is
+ * nothing to decode, and whole lines are copied between files by the kernel.
+ * @author Sebastian Hohns
+ */
+public class RawRaster {
+
+    public static final String EXTENSION = "raw";
+    private static final int MAGIC = 0x4a495052;
+    private static final int HEADER_SIZE = 16;
+
+    private int width;
+    private int height;
+    private int channels;
+    private File file;
+
+    private RawRaster(File file, int width, int height, int channels) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+    }
+
+    /**
+     * Opens a existing raster file, only the header is read.
+     * @param file raster file
+     * @return the raster
+     * @throws IOException if the file isn't a raster file
+     */
+    public static RawRaster open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            FileChannel channel = in.getChannel();
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("Not a raw raster file: " + file);
+            }
+            return new RawRaster(file, header.getInt(), header.getInt(), header.getInt());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a image as raster file.
+     * @param img image to write
+     * @param file target file
+     * @return the raster
+     * @throws IOException
+     */
+    public static RawRaster write(BufferedImage img, File file) throws IOException {
+        RawRaster raster = new RawRaster(file, img.getWidth(), img.getHeight(), img.getColorModel().hasAlpha() ? 4 : 3);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(raster.width).putInt(raster.height).putInt(raster.channels);
+            header.flip();
+            channel.write(header);
+
+            int[] pixels = new int[raster.width];
+            ByteBuffer line = ByteBuffer.allocate(raster.lineSize());
+            for (int y = 0; y < raster.height; y++) {
+                img.getRGB(0, y, raster.width, 1, pixels, 0, raster.width);
+                line.clear();
+                for (int x = 0; x < raster.width; x++) {
+                    line.put((byte) (pixels[x] >> 16)).put((byte) (pixels[x] >> 8)).put((byte) pixels[x]);
+                    if (raster.channels == 4) {
+                        line.put((byte) (pixels[x] >>> 24));
+                    }
+                }
+                line.flip();
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return raster;
+    }
+
+    /**
+     * Reads a region of the raster. Only the region is read from the file.
+     * @param x left border of the region
+     * @param y top border of the region
+     * @param regionWidth width of the region
+     * @param regionHeight height of the region
+     * @return image of the region
+     * @throws IOException
+     */
+    public BufferedImage read(int x, int y, int regionWidth, int regionHeight) throws IOException {
+        BufferedImage img = new BufferedImage(regionWidth, regionHeight, getImageType());
+        read(x, y, img);
+        return img;
+    }
+
+    /**
+     * Reads a region of the raster into a existing image. Only the region is read from the file.
+     * @param x left border of the region
+     * @param y top border of the region
+     * @param img target image of type getImageType(), its size is the size of the region
+     * @throws IOException
+     */
+    public void read(int x, int y, BufferedImage img) throws IOException {
+        int regionWidth = img.getWidth();
+        int regionHeight = img.getHeight();
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        byte[] line = new byte[regionWidth * channels];
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            for (int i = 0; i < regionHeight; i++) {
+                //Positional read of the part of the line inside the region
+                long position = offset(y + i) + (long) x * channels;
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of raw raster file: " + file);
+                    }
+                }
+                int p = i * regionWidth;
+                for (int b = 0; b < line.length; b += channels, p++) {
+                    int alpha = channels == 4 ? (line[b + 3] & 0xff) << 24 : 0xff000000;
+                    pixels[p] = alpha | (line[b] & 0xff) << 16 | (line[b + 1] & 0xff) << 8 | (line[b + 2] & 0xff);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies complete lines to a new raster file. The lines are stored in one block, so
+     * they are copied by the kernel without passing through the heap.
+     * @param y first line
+     * @param lines number of lines
+     * @param target target file
+     * @return the new raster
+     * @throws IOException
+     */
+    public RawRaster copyLines(int y, int lines, File target) throws IOException {
+        RawRaster raster = new RawRaster(target, width, lines, channels);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(width).putInt(lines).putInt(channels);
+            header.flip();
+            channel.write(header);
+
+            long position = offset(y);
+            long remaining = (long) lines * lineSize();
+            while (remaining > 0) {
+                long count = in.getChannel().transferTo(position, remaining, channel);
+                if (count <= 0) {
+                    throw new IOException("Unexpected end of raw raster file: " + file);
+                }
+                position += count;
+                remaining -= count;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return raster;
+    }
+
+    private long offset(int y) {
+        return HEADER_SIZE + (long) y * lineSize();
+    }
+
+    private int lineSize() {
+        return width * channels;
+    }
+
+    /**
+     * Returns the BufferedImage type matching the channels of the raster.
+     * @return BufferedImage.TYPE_INT_ARGB or BufferedImage.TYPE_INT_RGB
+     */
+    public int getImageType() {
+        return channels == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Determines if the file is a raster file, by its file extension.
+     * @param path path to the file
+     * @return true if it's a raster file
+     */
+    public static boolean isRawRaster(String path) {
+        return path.toLowerCase().endsWith("." + EXTENSION);
+    }
+}
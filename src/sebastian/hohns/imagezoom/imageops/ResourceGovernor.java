@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shares the cores and memory of the machine between the Imagemagick or Graphicsmagick
+ * processes running at the same time. Operations on a tile or row get a single thread,
+ * operations on a whole image (scaling a level) share the free cores evenly with the other
+ * whole image operations. One core is kept for the tiles and rows, so a large scale never
+ * stops the pipeline. A operation waits while all cores are in use, so all processes
+ * together never use more threads than cores. Every operation gets the part of the memory
+ * matching its threads.
+ * @author Sebastian Hohns
+ */
+public class ResourceGovernor {
+
+    private final int cores;
+    private final long memory;
+    //Cores whole image operations can use together
+    private final int parallelCores;
+    private int threadsInUse;
+    private int parallelThreads;
+    private int parallelOperations;
+
+    /**
+     * @param cores number of cores to share
+     * @param memory memory to share in bytes, 0 to leave the memory limits of the image lib
+     */
+    public ResourceGovernor(int cores, long memory) {
+        this.cores = cores;
+        this.memory = memory;
+        this.parallelCores = cores > 1 ? cores - 1 : cores;
+    }
+
+    /**
+     * Reserves the threads for a operation, waits until a core is free. A operation on a whole
+     * image gets its share of the cores but one, divided by the number of whole image
+     * operations including this one, but not more than the free cores.
+     * @param parallel true for operations on a whole image
+     * @return number of threads, pass it to release when the operation is finished
+     */
+    public synchronized int acquire(boolean parallel) {
+        boolean interrupted = false;
+        while (threadsInUse >= cores || (parallel && parallelThreads >= parallelCores)) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        int threads = 1;
+        if (parallel) {
+            parallelOperations++;
+            threads = Math.min(Math.min(cores - threadsInUse, parallelCores - parallelThreads), Math.max(1, parallelCores / parallelOperations));
+            parallelThreads += threads;
+        }
+        threadsInUse += threads;
+        return threads;
+    }
+
+    /**
+     * Releases the threads of a finished operation.
+     * @param threads number of threads returned by acquire
+     * @param parallel as given to acquire
+     */
+    public synchronized void release(int threads, boolean parallel) {
+        threadsInUse -= threads;
+        if (parallel) {
+            parallelThreads -= threads;
+            parallelOperations--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the -limit arguments for a operation.
+     * @param threads number of threads returned by acquire
+     * @param threadResource name of the thread resource, "thread" for Imagemagick, "threads" for Graphicsmagick
+     * @return command line arguments
+     */
+    public List<String> getLimitArgs(int threads, String threadResource) {
+        List<String> args = new ArrayList<String>();
+        args.add("-limit");
+        args.add(threadResource);
+        args.add(String.valueOf(threads));
+        if (memory > 0) {
+            long megabytes = Math.max(1, memory / cores * threads / (1024 * 1024));
+            args.add("-limit");
+            args.add("memory");
+            args.add(megabytes + "MB");
+            //Pixels beyond the memory limit are mapped to disk
+            args.add("-limit");
+            args.add("map");
+            args.add(2 * megabytes + "MB");
+        }
+        return args;
+    }
+}
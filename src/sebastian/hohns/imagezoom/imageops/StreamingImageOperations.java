@@ -0,0 +1,40 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Image operations which can tile a image while reading it. The original is read in horizontal
+ * bands of one tile height and every band is discarded after its tiles are written, so the
+ * memory footprint depends on the width of the image, not on its size.
+ * @author Sebastian Hohns
+ */
+public interface StreamingImageOperations extends ImageOperations {
+
+    /**
+     * Reads the image band by band and writes the tiles of all levels of the image pyramide.
+     * Every band is scaled down into the band of the next smaller level, which is written as
+     * soon as it is complete.
+     * @param path path to the original image
+     * @param widths width of every level, from the smallest level to the original image
+     * @param heights height of every level, from the smallest level to the original image
+     * @param tileWidth width of a single tile (see ImageFormat)
+     * @param tileHeight height of a single tile (see ImageFormat)
+     * @param target determines the path of every tile
+     * @return true if successful, false else
+     */
+    public boolean streamTiles(String path, int[] widths, int[] heights, int tileWidth, int tileHeight, TileTarget target);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Image operations which can keep encoded tiles in memory instead of writing them to a file.
+ * Tiles stored in a tile archive are appended to it without a temporary file.
+ * @author Sebastian Hohns
+ */
+public interface TileEncodingOperations extends ImageOperations {
+
+    /**
+     * Keeps all images written into the directory encoded in memory until they are taken.
+     * @param directory path to the directory
+     */
+    public void encodeInMemory(String directory);
+
+    /**
+     * Writes images into the directory as files again and drops all tiles not taken.
+     * @param directory path to the directory
+     */
+    public void stopEncodingInMemory(String directory);
+
+    /**
+     * Returns a tile kept in memory and removes it.
+     * @param path path the tile was written to
+     * @return encoded tile, null if the tile was written to a file
+     */
+    public byte[] takeEncodedTile(String path);
+}
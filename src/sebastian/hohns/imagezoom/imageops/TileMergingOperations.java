@@ -0,0 +1,37 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Image operations which can build a tile from the four tiles below it in the image pyramide.
+ * Only the original image is cut into tiles, all smaller levels are merged from the tiles of
+ * the next larger level, so no scaled level image is ever needed.
+ * @author Sebastian Hohns
+ */
+public interface TileMergingOperations extends ImageOperations {
+
+    /**
+     * Stitches up to four tiles together and scales the result down to half its size.
+     * @param children paths of the top left, top right, bottom left and bottom right tile,
+     * null for tiles outside the image. The top left tile always exists.
+     * @param target target path
+     * @param width width of the result
+     * @param height height of the result
+     * @return true if successful, false else
+     */
+    public boolean mergeTiles(String[] children, String target, int width, int height);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+/**
+ * Determines where a tile of the image pyramide is written to.
+ * @author Sebastian Hohns
+ */
+public interface TileTarget {
+
+    /**
+     * Returns the path a tile is written to.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return path of the tile
+     */
+    public String getTilePath(int level, int col, int row);
+
+    /**
+     * Called after a tile is written.
+     * @param path path of the tile
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     */
+    public void tileWritten(String path, int level, int col, int row);
+}
@@ -24,7 +24,10 @@ import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
  * @author Sebastian Hohns
  */
 public class ImageLevel extends ImageObject {
-    
+
+    private ImageLevel sourceLevel;
+    private String tilePath;
+
     public ImageLevel(JImagePyramideProcessor processor, OriginalImage props, int level, int width, int height) {
         this.imageProcessor = processor;
         this.width = width;
@@ -53,19 +56,59 @@ public class ImageLevel extends ImageObject {
             setPath(props.getTempPath() + "level-" + level + imageProcessor.getImageOperations().tmpFileExtension());
         }
      
-        done = imageProcessor.getImageOperations().scaleImage(props.getImagePath(), path, width, height,  imageProcessor.getImageFormat().scaleFactor(level));
+        if (sourceLevel != null) {
+            done = imageProcessor.getImageOperations().scaleImage(sourceLevel.getPath(), path, width, height, imageProcessor.getImageFormat().scaleFactor(sourceLevel.getLevel() - level));
+        } else {
+            done = imageProcessor.getImageOperations().scaleImage(props.getImagePath(), path, width, height, imageProcessor.getImageFormat().scaleFactor(level));
+        }
         //copy last level to tilegroup
-        if (level == 0) {          
-            imageProcessor.moveToTargetDir(props, new File(path), imageProcessor.getImageFormat().generateFilename(0, 0, 0));
+        if (level == 0 && done) {
+            if (tilePath != null && imageProcessor.getImageFormat().isPadded()) {
+                done = imageProcessor.getImageOperations().cropAndPad(path, tilePath, 0, 0, imageProcessor.getImageFormat().getTileWidth(), imageProcessor.getImageFormat().getTileHeight())
+                        && imageProcessor.tileDone(props, tilePath, 0, 0, 0);
+            } else if (tilePath != null) {
+                done = imageProcessor.moveToTargetDir(new File(path), tilePath)
+                        && imageProcessor.tileDone(props, tilePath, 0, 0, 0);
+            } else {
+                String target = imageProcessor.getImageFormat().getTilePath(props.getTargetDir(), props.getImageWidth(), props.getImageHeight(), 0, 0, 0, props.getTileIndex(0, 0, 0));
+                done = imageProcessor.moveToTargetDir(new File(path), target)
+                        && imageProcessor.tileDone(props, target, 0, 0, 0);
+            }
         }
     }
 
+    /**
+     * Returns the level this level is scaled from, null if it's scaled from the original image.
+     * @return sourceLevel
+     */
+    public ImageLevel getSourceLevel() {
+        return sourceLevel;
+    }
+
+    /**
+     * Scale this level from a larger level instead of the original image. The source
+     * level must be calculated before this level is run.
+     * @param sourceLevel larger level
+     */
+    public void setSourceLevel(ImageLevel sourceLevel) {
+        this.sourceLevel = sourceLevel;
+    }
+
+    /**
+     * Sets the tile path the last zoom level is moved to. If not set, the tile path is
+     * determined when the level is finished.
+     * @param tilePath path of the tile
+     */
+    public void setTilePath(String tilePath) {
+        this.tilePath = tilePath;
+    }
+
     /**
      * Calculates the number of rows required for this level. Tile height depends on the
      * choosen image format (in most cases 256px).
      * @return number of required rows.
      */
     public int getRequiredRows() {
-        return (int) Math.ceil(height / imageProcessor.getImageFormat().getTileHeight());
+        return (int) Math.ceil(height / (double) imageProcessor.getImageFormat().getTileHeight());
     }
 }
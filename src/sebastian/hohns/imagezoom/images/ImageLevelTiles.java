@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.images;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageops.LevelTilingOperations;
+
+/**
+ * Represents all tiles of a level. The level is scaled from the original image and cut into
+ * tiles in one image operation, the tiles are moved to their tile paths afterwards.
+ * @author Sebastian Hohns
+ */
+public class ImageLevelTiles extends ImageObject {
+
+    private int cols;
+    private String[] targetPaths;
+
+    /**
+     * @param processor image processor
+     * @param props original image
+     * @param level level in the image pyramide
+     * @param width width of the level
+     * @param height height of the level
+     * @param targetPaths target path for every tile of the level, row by row
+     */
+    public ImageLevelTiles(JImagePyramideProcessor processor, OriginalImage props, int level, int width, int height, String[] targetPaths) {
+        this.imageProcessor = processor;
+        this.props = props;
+        this.level = level;
+        this.width = width;
+        this.height = height;
+        this.targetPaths = targetPaths;
+        this.cols = (int) Math.ceil(width / (double) processor.getImageFormat().getTileWidth());
+    }
+
+    public void run() {
+        String extension = imageProcessor.getImageFormat().getTileFileExtension();
+        LevelTilingOperations io = (LevelTilingOperations) imageProcessor.getImageOperations();
+        path = props.getTempPath() + "level-tiles-" + level;
+
+        //The original level keeps its size
+        if (width == props.getImageWidth() && height == props.getImageHeight()) {
+            done = io.scaleAndTile(props.getImagePath(), path, extension, 0, 0, imageProcessor.getImageFormat().getTileWidth(), imageProcessor.getImageFormat().getTileHeight());
+        } else {
+            done = io.scaleAndTile(props.getImagePath(), path, extension, width, height, imageProcessor.getImageFormat().getTileWidth(), imageProcessor.getImageFormat().getTileHeight());
+        }
+
+        //Rename the tiles to their final names, a missing tile fails the operation
+        for (int i = 0; i < targetPaths.length; i++) {
+            File tile = new File(path + "-" + i + extension);
+            if (tile.exists()) {
+                try {
+                    File targetFile = new File(targetPaths[i]);
+                    if (targetFile.exists()) {
+                        targetFile.delete();
+                    }
+                    FileUtils.moveFile(tile, targetFile);
+                    if (!imageProcessor.tileDone(props, targetFile.getPath(), level, i % cols, i / cols)) {
+                        done = false;
+                    }
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    done = false;
+                }
+            } else {
+                done = false;
+            }
+        }
+    }
+}
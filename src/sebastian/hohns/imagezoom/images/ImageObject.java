@@ -17,6 +17,7 @@
 package sebastian.hohns.imagezoom.images;
 
 import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageformats.ImageFormat;
 
 /**
  * A abstract image object. Implements Runnable to support the thread executor.
@@ -105,6 +106,16 @@ public abstract class ImageObject implements Runnable{
         this.level = level;
     }
 
+    /**
+     * Determines if rows and tiles have to be cut with crop. cutRow and cutTile only support
+     * 256x256 tiles without overlap.
+     * @return true if crop is required
+     */
+    protected boolean requiresCrop() {
+        ImageFormat format = imageProcessor.getImageFormat();
+        return format.getTileOverlap() > 0 || format.getTileWidth() != 256 || format.getTileHeight() != 256;
+    }
+
     /**
      * Return the status of the image operation.
      * @return true if finished, else false
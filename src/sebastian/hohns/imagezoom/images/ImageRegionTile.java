@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.images;
+
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.imageops.ImageOperations;
+
+/**
+ * Represents a tile of a smaller level cut directly from the original image. Only the part of
+ * the original below the tile and a margin around it is cropped and scaled, so rebuilding a
+ * region never scales a whole level.
+ * @author Sebastian Hohns
+ */
+public class ImageRegionTile extends ImageObject {
+
+    private int col;
+    private int row;
+    private int margin;
+
+    /**
+     * @param processor image processor
+     * @param props original image
+     * @param level level in the image pyramide, smaller than the original
+     * @param col column
+     * @param row row
+     * @param target path of the tile
+     * @param margin pixels of the level scaled around the tile, the resampling filter reaches
+     * a few pixels beyond the tile
+     */
+    public ImageRegionTile(JImagePyramideProcessor processor, OriginalImage props, int level, int col, int row, String target, int margin) {
+        this.imageProcessor = processor;
+        this.props = props;
+        this.level = level;
+        this.col = col;
+        this.row = row;
+        this.path = target;
+        this.margin = margin;
+    }
+
+    public void run() {
+        ImageFormat format = imageProcessor.getImageFormat();
+        ImageOperations io = imageProcessor.getImageOperations();
+        int scale = format.scaleFactor(props.getRequiredlevels() - level);
+        int levelWidth = format.scaleDimension(props.getImageWidth(), props.getRequiredlevels() - level);
+        int levelHeight = format.scaleDimension(props.getImageHeight(), props.getRequiredlevels() - level);
+        int tileWidth = format.getTileWidth();
+        int tileHeight = format.getTileHeight();
+        int overlap = format.getTileOverlap();
+
+        //Tile including the overlapping pixels of its neighbours, in pixels of the level
+        int left = Math.max(0, col * tileWidth - overlap);
+        int top = Math.max(0, row * tileHeight - overlap);
+        int right = Math.min(levelWidth, (col + 1) * tileWidth + overlap);
+        int bottom = Math.min(levelHeight, (row + 1) * tileHeight + overlap);
+        //Scaled part of the level
+        int windowLeft = Math.max(0, left - margin);
+        int windowTop = Math.max(0, top - margin);
+        int windowRight = Math.min(levelWidth, right + margin);
+        int windowBottom = Math.min(levelHeight, bottom + margin);
+        width = right - left;
+        height = bottom - top;
+
+        //The level is rounded up, its pixels are slightly larger than scale pixels of the original
+        int x = originalPixel(windowLeft, props.getImageWidth(), levelWidth);
+        int y = originalPixel(windowTop, props.getImageHeight(), levelHeight);
+        String name = props.getTempPath() + "region-" + level + "-" + col + "-" + row;
+        String region = name + io.tmpFileExtension();
+        String scaled = name + "-scaled" + io.tmpFileExtension();
+        done = io.crop(props.getImagePath(), region, x, y, originalPixel(windowRight, props.getImageWidth(), levelWidth) - x, originalPixel(windowBottom, props.getImageHeight(), levelHeight) - y)
+                && io.scaleImage(region, scaled, windowRight - windowLeft, windowBottom - windowTop, scale);
+        io.release(region);
+        if (done && format.isPadded()) {
+            done = io.cropAndPad(scaled, path, col * tileWidth - windowLeft, row * tileHeight - windowTop, tileWidth, tileHeight);
+        } else if (done) {
+            done = io.crop(scaled, path, left - windowLeft, top - windowTop, width, height);
+        }
+        io.release(scaled);
+        if (done) {
+            done = imageProcessor.tileDone(props, path, level, col, row);
+        }
+    }
+
+    private static int originalPixel(int levelPixel, int originalSize, int levelSize) {
+        return (int) Math.round(levelPixel * (double) originalSize / levelSize);
+    }
+}
@@ -39,7 +39,17 @@ public class ImageRow extends ImageObject {
 
     public void run() {
         path = props.getTempPath() + "row-" + imgLevel.getLevel() + "-" + row + imageProcessor.getImageOperations().tmpFileExtension();
-        done = imageProcessor.getImageOperations().cutRow(imgLevel.getPath(), path, imgLevel.getHeight(), row * height, width, imageProcessor.getImageFormat().getTileHeight());
+        if (requiresCrop()) {
+            //The row contains the overlapping lines of the rows above and below
+            int tileHeight = imageProcessor.getImageFormat().getTileHeight();
+            int overlap = imageProcessor.getImageFormat().getTileOverlap();
+            int top = Math.max(0, row * tileHeight - overlap);
+            int bottom = Math.min(imgLevel.getHeight(), (row + 1) * tileHeight + overlap);
+            height = bottom - top;
+            done = imageProcessor.getImageOperations().crop(imgLevel.getPath(), path, 0, top, width, height);
+        } else {
+            done = imageProcessor.getImageOperations().cutRow(imgLevel.getPath(), path, imgLevel.getHeight(), row * height, width, imageProcessor.getImageFormat().getTileHeight());
+        }
     }
 
     /**
@@ -48,7 +58,7 @@ public class ImageRow extends ImageObject {
      * @return number of required columns.
      */
     public int getRequiredCols() {
-        return (int) Math.ceil(width / imageProcessor.getImageFormat().getTileWidth());
+        return (int) Math.ceil(width / (double) imageProcessor.getImageFormat().getTileWidth());
     }
 
     /**
@@ -26,15 +26,33 @@ public class ImageTile extends ImageObject {
 
     private ImageRow row;
     private int col;
-    private String targetDir;
-    public ImageTile(JImagePyramideProcessor processor, ImageRow row, String targetDir, int col) {
+    private String target;
+    public ImageTile(JImagePyramideProcessor processor, ImageRow row, String target, int col) {
         this.imageProcessor = processor;
         this.row = row;
         this.col = col;
-        this.targetDir=targetDir;
+        this.target = target;
+        this.props = row.props;
+        this.level = row.getLevel();
     }
 
     public void run() {
-        imageProcessor.getImageOperations().cutTile(row.getPath(), targetDir+imageProcessor.getImageFormat().generateFilename(row.getLevel(), row.getRow(), col), row.getWidth(),row.getHeight(), col);
+        path = target;
+        if (imageProcessor.getImageFormat().isPadded()) {
+            int tileWidth = imageProcessor.getImageFormat().getTileWidth();
+            done = imageProcessor.getImageOperations().cropAndPad(row.getPath(), path, col * tileWidth, 0, tileWidth, imageProcessor.getImageFormat().getTileHeight());
+        } else if (requiresCrop()) {
+            //The tile contains the overlapping columns of its neighbours, all cut from the same row
+            int tileWidth = imageProcessor.getImageFormat().getTileWidth();
+            int overlap = imageProcessor.getImageFormat().getTileOverlap();
+            int left = Math.max(0, col * tileWidth - overlap);
+            int right = Math.min(row.getWidth(), (col + 1) * tileWidth + overlap);
+            done = imageProcessor.getImageOperations().crop(row.getPath(), path, left, 0, right - left, row.getHeight());
+        } else {
+            done = imageProcessor.getImageOperations().cutTile(row.getPath(), path, row.getWidth(),row.getHeight(), col);
+        }
+        if (done) {
+            done = imageProcessor.tileDone(props, path, level, col, row.getRow());
+        }
     }
 }
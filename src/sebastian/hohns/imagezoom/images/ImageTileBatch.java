@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.images;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+
+/**
+ * Represents all tiles of a single row. The tiles are cut in one image operation and
+ * afterwards moved to their tile directories.
+ * @author Sebastian Hohns
+ */
+public class ImageTileBatch extends ImageObject {
+
+    private ImageRow row;
+    private String[] targetPaths;
+
+    /**
+     * @param processor image processor
+     * @param props original image
+     * @param row row to cut
+     * @param targetPaths target path for every column of the row
+     */
+    public ImageTileBatch(JImagePyramideProcessor processor, OriginalImage props, ImageRow row, String[] targetPaths) {
+        this.imageProcessor = processor;
+        this.props = props;
+        this.row = row;
+        this.targetPaths = targetPaths;
+        this.level = row.getLevel();
+    }
+
+    public void run() {
+        String extension = imageProcessor.getImageFormat().getTileFileExtension();
+        path = props.getTempPath() + "tiles-" + level + "-" + row.getRow();
+        done = imageProcessor.getImageOperations().cutRowIntoTiles(row.getPath(), path, extension, imageProcessor.getImageFormat().getTileWidth(), row.getHeight());
+
+        //Rename the tiles to their final names, a missing tile fails the operation
+        for (int col = 0; col < targetPaths.length; col++) {
+            File tile = new File(path + "-" + col + extension);
+            if (tile.exists()) {
+                try {
+                    File targetFile = new File(targetPaths[col]);
+                    if (targetFile.exists()) {
+                        targetFile.delete();
+                    }
+                    FileUtils.moveFile(tile, targetFile);
+                    if (!imageProcessor.tileDone(props, targetFile.getPath(), level, col, row.getRow())) {
+                        done = false;
+                    }
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    done = false;
+                }
+            } else {
+                done = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.images;
+
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageops.TileMergingOperations;
+
+/**
+ * Represents a tile built from the four tiles below it in the image pyramide.
+ * @author Sebastian Hohns
+ */
+public class ImageTileMerge extends ImageObject {
+
+    private int col;
+    private int row;
+    private String[] children;
+
+    /**
+     * @param processor image processor
+     * @param props original image
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @param children paths of the top left, top right, bottom left and bottom right tile of the
+     * next larger level, null for tiles outside the image
+     * @param target path of the tile
+     * @param width width of the tile
+     * @param height height of the tile
+     */
+    public ImageTileMerge(JImagePyramideProcessor processor, OriginalImage props, int level, int col, int row, String[] children, String target, int width, int height) {
+        this.imageProcessor = processor;
+        this.props = props;
+        this.level = level;
+        this.col = col;
+        this.row = row;
+        this.children = children;
+        this.path = target;
+        this.width = width;
+        this.height = height;
+    }
+
+    public void run() {
+        done = ((TileMergingOperations) imageProcessor.getImageOperations()).mergeTiles(children, path, width, height);
+        if (done) {
+            done = imageProcessor.tileDone(props, path, level, col, row);
+        }
+    }
+}
@@ -19,7 +19,9 @@ package sebastian.hohns.imagezoom.images;
 import sebastian.hohns.imagezoom.imageops.ImageOperations;
 import sebastian.hohns.imagezoom.exceptions.ImageSizeNotFoundException;
 import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.imageformats.TileArchive;
 import java.io.File;
+import java.util.UUID;
 import org.apache.commons.io.FilenameUtils;
 
 /**
@@ -33,28 +35,35 @@ public class OriginalImage extends ImageObject {
     private int imageWidth;
     private int imageHeight;
     private int requiredlevels;
-    private int tileGroupCounter;
+    //Number of tiles before the first tile of every level, the last entry is the total
+    private int[] levelTileOffsets = new int[1];
+    private int[] levelCols;
     private ImageOperations io;
     private String targetDir;
+    private String tempPath;
+    private TileArchive tileArchive;
 
     public OriginalImage(File image, ImageFormat format, ImageOperations io, String targetDir) {
         this.image = image;
         this.io = io;
         this.targetDir = targetDir;
+        //Unique per job, the same image may be converted several times at once
+        this.tempPath = System.getProperty("java.io.tmpdir") + File.separator + FilenameUtils.getBaseName(image.getName()) + "-" + UUID.randomUUID() + "/";
 
         new File(getTempPath()).mkdirs();
         new File(targetDir).mkdirs();
 
         this.format = format;
-        tileGroupCounter = 0;
 
         try {
-            String size[] = io.determineImageDimension(image.getAbsolutePath()).split("x");
+            String dimension = io.determineImageDimension(image.getAbsolutePath());
+            String size[] = dimension != null ? dimension.split("x") : new String[0];
 
             if (size.length == 2) {
                 imageWidth = Integer.parseInt(size[0]);
                 imageHeight = Integer.parseInt(size[1]);
                 requiredlevels = determineRequiredLevels();
+                determineTileOffsets();
             } else {
                 throw new ImageSizeNotFoundException("Image size couldn't be determined!");
             }
@@ -76,7 +85,33 @@ public class OriginalImage extends ImageObject {
      * @return number of levels
      */
     public int determineRequiredLevels() {
-        return (int) Math.ceil(Math.log((double) Math.max(imageHeight, imageWidth) / (format.getTileWidth() * 1.0)) / Math.log(2.0));
+        return format.getRequiredLevels(imageWidth, imageHeight);
+    }
+
+    /**
+     * Counts the tiles of every level once, the index of a tile is calculated from them.
+     */
+    private void determineTileOffsets() {
+        levelTileOffsets = new int[requiredlevels + 2];
+        levelCols = new int[requiredlevels + 1];
+        for (int level = 0; level <= requiredlevels; level++) {
+            int width = format.scaleDimension(imageWidth, requiredlevels - level);
+            int height = format.scaleDimension(imageHeight, requiredlevels - level);
+            levelCols[level] = (int) Math.ceil(width / (double) format.getTileWidth());
+            levelTileOffsets[level + 1] = levelTileOffsets[level] + levelCols[level] * (int) Math.ceil(height / (double) format.getTileHeight());
+        }
+    }
+
+    /**
+     * Calculates the index of a tile. The tiles are numbered level by level, starting with the
+     * smallest level, and row by row inside a level.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return number of tiles before this one
+     */
+    public int getTileIndex(int level, int col, int row) {
+        return levelTileOffsets[level] + row * levelCols[level] + col;
     }
 
     /**
@@ -84,7 +119,7 @@ public class OriginalImage extends ImageObject {
      * @return number of rows
      */
     public int getRequiredRows() {
-        return (int) Math.ceil(imageHeight / format.getTileHeight());
+        return (int) Math.ceil(imageHeight / (double) format.getTileHeight());
     }
 
     /**
@@ -92,7 +127,7 @@ public class OriginalImage extends ImageObject {
      * @return number of rows
      */
     public int getRequiredCols() {
-        return (int) Math.ceil(imageWidth / format.getTileWidth());
+        return (int) Math.ceil(imageWidth / (double) format.getTileWidth());
     }
 
     /**
@@ -120,11 +155,11 @@ public class OriginalImage extends ImageObject {
     }
 
     /**
-     * Return the current tileCount
-     * @return tileGroupCounter
+     * Return the number of tiles of all levels.
+     * @return tileCount
      */
-    public synchronized int getTileCount() {
-        return tileGroupCounter;
+    public int getTileCount() {
+        return levelTileOffsets[levelTileOffsets.length - 1];
     }
 
     /**
@@ -148,15 +183,31 @@ public class OriginalImage extends ImageObject {
      * @return path
      */
     public synchronized String getTempPath() {
-        return System.getProperty("java.io.tmpdir") + File.separator + FilenameUtils.getBaseName(getImageName()) + "/";
+        return tempPath;
+    }
+
+    /**
+     * Returns the archive the tiles are stored in.
+     * @return tileArchive, null if the tiles are stored as files
+     */
+    public synchronized TileArchive getTileArchive() {
+        return tileArchive;
+    }
+
+    /**
+     * Sets the archive the tiles are stored in.
+     * @param tileArchive archive, null to store the tiles as files
+     */
+    public synchronized void setTileArchive(TileArchive tileArchive) {
+        this.tileArchive = tileArchive;
     }
 
     /**
-     * Increment the tile counter (needed to determine the TileGroup.
-     * @return tileGroupCounter
+     * Returns the temporary directory tiles are written to before they are added to the archive.
+     * @return path of the directory
      */
-    public synchronized int incrementTileCounter() {
-        return tileGroupCounter++;
+    public String getArchiveTempPath() {
+        return getTempPath() + "archive" + File.separator;
     }
 
     /**
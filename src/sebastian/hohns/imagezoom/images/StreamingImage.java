@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.images;
+
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.imageops.StreamingImageOperations;
+import sebastian.hohns.imagezoom.imageops.TileTarget;
+
+/**
+ * Represents the whole image pyramide, tiled band by band while reading the original image.
+ * Replaces all ImageLevel, ImageRow and ImageTile operations for images too large to be
+ * decoded at once.
+ * @author Sebastian Hohns
+ */
+public class StreamingImage extends ImageObject implements TileTarget {
+
+    //Set if a written tile can't be stored
+    private volatile boolean tileFailed;
+
+    public StreamingImage(JImagePyramideProcessor processor, OriginalImage props) {
+        this.imageProcessor = processor;
+        this.props = props;
+        this.width = props.getImageWidth();
+        this.height = props.getImageHeight();
+        this.level = props.getRequiredlevels();
+    }
+
+    /**
+     * Tiles the original image.
+     */
+    public void run() {
+        ImageFormat format = imageProcessor.getImageFormat();
+        int[] widths = new int[level + 1];
+        int[] heights = new int[level + 1];
+        for (int i = 0; i <= level; i++) {
+            widths[i] = format.scaleDimension(width, level - i);
+            heights[i] = format.scaleDimension(height, level - i);
+        }
+
+        StreamingImageOperations io = (StreamingImageOperations) imageProcessor.getImageOperations();
+        done = io.streamTiles(props.getImagePath(), widths, heights, format.getTileWidth(), format.getTileHeight(), this) && !tileFailed;
+    }
+
+    /**
+     * Returns the path a tile is written to.
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return path of the tile
+     */
+    public String getTilePath(int level, int col, int row) {
+        ImageFormat format = imageProcessor.getImageFormat();
+        if (props.getTileArchive() != null) {
+            return props.getArchiveTempPath() + "tile-" + level + "-" + col + "-" + row + format.getTileFileExtension();
+        }
+        return format.getTilePath(props.getTargetDir(), width, height, level, col, row, props.getTileIndex(level, col, row));
+    }
+
+    /**
+     * Called after a tile is written.
+     * @param path path of the tile
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     */
+    public void tileWritten(String path, int level, int col, int row) {
+        if (!imageProcessor.tileDone(props, path, level, col, row)) {
+            tileFailed = true;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.server;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Two bounded LRU caches for generated tiles: the tile data in memory and the tile files on
+ * disk. Tiles are evicted from each cache independently once it exceeds its size.
+ * @author Sebastian Hohns
+ */
+public class TileCache {
+
+    private final long memorySize;
+    private final long diskSize;
+    private long memoryUsed;
+    private long diskUsed;
+    //Ordered by access, the eldest entry is evicted first
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(256, 0.75f, true);
+
+    /**
+     * Tiles already in the cache directory are added to the disk cache, oldest first.
+     * @param cacheDir directory the tiles are stored in
+     * @param extension file extension of the tiles, without the dot
+     * @param memorySize maximum size of the tiles in memory in bytes
+     * @param diskSize maximum size of the tile files in bytes
+     */
+    public TileCache(File cacheDir, String extension, long memorySize, long diskSize) {
+        this.memorySize = memorySize;
+        this.diskSize = diskSize;
+
+        if (cacheDir.isDirectory()) {
+            @SuppressWarnings("unchecked")
+            Collection<File> files = FileUtils.listFiles(cacheDir, new String[]{extension}, true);
+            List<File> tiles = new ArrayList<File>(files);
+            Collections.sort(tiles, new Comparator<File>() {
+
+                public int compare(File f1, File f2) {
+                    return f1.lastModified() < f2.lastModified() ? -1 : (f1.lastModified() == f2.lastModified() ? 0 : 1);
+                }
+            });
+            for (File tile : tiles) {
+                addFile(tile);
+            }
+        }
+    }
+
+    /**
+     * Returns a cached tile.
+     * @param tile path of the tile file
+     * @return tile data, null if the tile is not cached
+     * @throws IOException
+     */
+    public byte[] get(File tile) throws IOException {
+        String key = tile.getPath();
+        synchronized (this) {
+            byte[] data = memory.get(key);
+            if (data != null) {
+                disk.get(key);
+                return data;
+            }
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+        byte[] data;
+        try {
+            data = FileUtils.readFileToByteArray(tile);
+        } catch (FileNotFoundException fnfe) {
+            //Evicted by another thread in the meantime, the tile is generated again
+            return null;
+        }
+        addData(key, data);
+        return data;
+    }
+
+    /**
+     * Adds a new tile file to both caches.
+     * @param tile path of the tile file
+     * @return tile data
+     * @throws IOException
+     */
+    public byte[] put(File tile) throws IOException {
+        byte[] data = FileUtils.readFileToByteArray(tile);
+        addFile(tile);
+        addData(tile.getPath(), data);
+        return data;
+    }
+
+    private synchronized void addData(String key, byte[] data) {
+        byte[] old = memory.put(key, data);
+        memoryUsed += data.length - (old != null ? old.length : 0);
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryUsed > memorySize && it.hasNext()) {
+            memoryUsed -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    private synchronized void addFile(File tile) {
+        Long old = disk.put(tile.getPath(), tile.length());
+        diskUsed += tile.length() - (old != null ? old : 0);
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskUsed > diskSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            diskUsed -= eldest.getValue();
+            new File(eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.imageops.ImageOperations;
+import sebastian.hohns.imagezoom.images.OriginalImage;
+
+/**
+ * Serves Zoomify image pyramides over http without converting the images beforehand. A tile is
+ * cut and scaled from the original image when it's requested the first time and kept in a
+ * TileCache. Concurrent requests for the same tile or image wait for a single generation.
+ * The tiles are cached per modification time of the original, a changed original gets new tiles.
+ * URLs: /imageName/ImageProperties.xml and /imageName/TileGroupN/level-col-row.jpg
+ * @author Sebastian Hohns
+ */
+public class TileServer implements HttpHandler {
+
+    private static final Pattern TILE = Pattern.compile("/([^/]+)/TileGroup(\\d+)/(\\d+)-(\\d+)-(\\d+)\\.jpg");
+    private static final Pattern PROPERTIES = Pattern.compile("/([^/]+)/ImageProperties\\.xml");
+    private JImagePyramideProcessor processor;
+    private File sourceDir;
+    private File cacheDir;
+    private TileCache cache;
+    private HttpServer server;
+    private ExecutorService requestThreads;
+    private ConcurrentHashMap<String, FutureTask<ServedImage>> images = new ConcurrentHashMap<String, FutureTask<ServedImage>>();
+    //Images replaced by a changed original, their temporary files are deleted by stop
+    private ConcurrentLinkedQueue<OriginalImage> replaced = new ConcurrentLinkedQueue<OriginalImage>();
+    private ConcurrentHashMap<String, FutureTask<byte[]>> tiles = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+    /**
+     * @param processor processor with the zoomify format, its image lib generates the tiles
+     * @param sourceDir directory of the original images, a image is requested by its name without extension
+     * @param cacheDir directory the generated tiles are stored in
+     * @param memorySize maximum size of the tiles kept in memory in bytes
+     * @param diskSize maximum size of the tiles stored in cacheDir in bytes
+     */
+    public TileServer(JImagePyramideProcessor processor, File sourceDir, File cacheDir, long memorySize, long diskSize) {
+        this.processor = processor;
+        this.sourceDir = sourceDir;
+        this.cacheDir = cacheDir;
+        this.cache = new TileCache(cacheDir, processor.getImageFormat().getTileFileExtension().substring(1), memorySize, diskSize);
+    }
+
+    /**
+     * Starts the http server.
+     * @param port port to listen on
+     * @param threads number of requests handled at the same time
+     * @throws IOException
+     */
+    public void start(int port, int threads) throws IOException {
+        requestThreads = Executors.newFixedThreadPool(threads);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this);
+        server.setExecutor(requestThreads);
+        server.start();
+    }
+
+    /**
+     * Stops the http server and deletes the temporary files.
+     */
+    public void stop() {
+        server.stop(0);
+        requestThreads.shutdown();
+        for (FutureTask<ServedImage> image : images.values()) {
+            try {
+                if (image.get() != null) {
+                    processor.cleanup(image.get().image.getTempPath());
+                }
+            } catch (InterruptedException ie) {
+                ie.printStackTrace();
+            } catch (ExecutionException ee) {
+                ee.printStackTrace();
+            }
+        }
+        for (OriginalImage image : replaced) {
+            processor.cleanup(image.getTempPath());
+        }
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        try {
+            Matcher tile = TILE.matcher(path);
+            Matcher properties = PROPERTIES.matcher(path);
+            if (tile.matches()) {
+                byte[] data = getTile(tile.group(1), Integer.parseInt(tile.group(2)), Integer.parseInt(tile.group(3)), Integer.parseInt(tile.group(4)), Integer.parseInt(tile.group(5)));
+                send(exchange, data, "image/jpeg");
+            } else if (properties.matches()) {
+                OriginalImage p = getImage(properties.group(1));
+                send(exchange, p != null ? FileUtils.readFileToByteArray(new File(p.getTargetDir(), "ImageProperties.xml")) : null, "text/xml");
+            } else {
+                send(exchange, null, null);
+            }
+        } catch (NumberFormatException nfe) {
+            send(exchange, null, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends a response, 404 if there is no data.
+     */
+    private void send(HttpExchange exchange, byte[] data, String contentType) throws IOException {
+        if (data == null) {
+            exchange.sendResponseHeaders(404, -1);
+        } else {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, data.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(data);
+            out.close();
+        }
+        exchange.close();
+    }
+
+    /**
+     * Returns the original image with the given name, its size is determined on the first request
+     * and again whenever the original is changed.
+     * @param name name of the image without extension
+     * @return original image, null if there is no such image
+     */
+    OriginalImage getImage(final String name) throws InterruptedException, ExecutionException {
+        while (true) {
+            FutureTask<ServedImage> task = new FutureTask<ServedImage>(new Callable<ServedImage>() {
+
+                public ServedImage call() {
+                    return loadImage(name);
+                }
+            });
+            FutureTask<ServedImage> loading = images.putIfAbsent(name, task);
+            if (loading == null) {
+                loading = task;
+                task.run();
+            }
+            ServedImage served = loading.get();
+            if (served == null) {
+                //The image may be added later
+                images.remove(name, loading);
+                return null;
+            }
+            if (served.source.lastModified() == served.lastModified) {
+                return served.image;
+            }
+            if (images.remove(name, loading)) {
+                replaced.add(served.image);
+            }
+        }
+    }
+
+    private ServedImage loadImage(String name) {
+        if (name.startsWith(".")) {
+            return null;
+        }
+        File[] files = sourceDir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            if (file.isFile() && FilenameUtils.getBaseName(file.getName()).equals(name)) {
+                //Tiles of a earlier version of the original are never served
+                long lastModified = file.lastModified();
+                ImageFormat format = processor.getImageFormat();
+                OriginalImage p = new OriginalImage(file, format, processor.getImageOperations(), new File(cacheDir, name + "-" + lastModified).getPath());
+                if (p.getImageWidth() <= 0 || p.getImageHeight() <= 0) {
+                    processor.cleanup(p.getTempPath());
+                    return null;
+                }
+                p.run();
+                format.generateXMLFile(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), p.getTileCount());
+                return new ServedImage(p, file, lastModified);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a tile from the cache or generates it.
+     * @param name name of the image
+     * @param group tile group of the request, must match the tile
+     * @param level level in the image pyramide
+     * @param col column
+     * @param row row
+     * @return tile data, null if there is no such tile
+     */
+    byte[] getTile(String name, int group, final int level, final int col, final int row) throws IOException, InterruptedException, ExecutionException {
+        final OriginalImage p = getImage(name);
+        if (p == null || level > p.getRequiredlevels()) {
+            return null;
+        }
+        ImageFormat format = processor.getImageFormat();
+        if (col * format.getTileWidth() >= format.scaleDimension(p.getImageWidth(), p.getRequiredlevels() - level)
+                || row * format.getTileHeight() >= format.scaleDimension(p.getImageHeight(), p.getRequiredlevels() - level)) {
+            return null;
+        }
+        int index = p.getTileIndex(level, col, row);
+        final File file = new File(format.getTilePath(p.getTargetDir(), p.getImageWidth(), p.getImageHeight(), level, col, row, index));
+        if (!file.getParentFile().getName().equals("TileGroup" + group)) {
+            return null;
+        }
+
+        byte[] data = cache.get(file);
+        if (data != null) {
+            return data;
+        }
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+            public byte[] call() throws IOException {
+                //Another request may have finished the tile in the meantime
+                byte[] data = cache.get(file);
+                return data != null ? data : generateTile(p, file, level, col, row);
+            }
+        });
+        FutureTask<byte[]> running = tiles.putIfAbsent(file.getPath(), task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                tiles.remove(file.getPath(), task);
+            }
+        }
+        return running.get();
+    }
+
+    /**
+     * Cuts the region of a tile from the original image and scales it to the size of the tile.
+     */
+    private byte[] generateTile(OriginalImage p, File file, int level, int col, int row) throws IOException {
+        ImageFormat format = processor.getImageFormat();
+        ImageOperations io = processor.getImageOperations();
+        int scale = format.scaleFactor(p.getRequiredlevels() - level);
+        int levelWidth = format.scaleDimension(p.getImageWidth(), p.getRequiredlevels() - level);
+        int levelHeight = format.scaleDimension(p.getImageHeight(), p.getRequiredlevels() - level);
+        int width = Math.min(format.getTileWidth(), levelWidth - col * format.getTileWidth());
+        int height = Math.min(format.getTileHeight(), levelHeight - row * format.getTileHeight());
+        int x = col * format.getTileWidth() * scale;
+        int y = row * format.getTileHeight() * scale;
+
+        String name = p.getTempPath() + level + "-" + col + "-" + row + "-" + UUID.randomUUID();
+        String tile = name + format.getTileFileExtension();
+        boolean done;
+        if (scale == 1) {
+            done = io.crop(p.getImagePath(), tile, x, y, width, height);
+        } else {
+            String region = name + io.tmpFileExtension();
+            done = io.crop(p.getImagePath(), region, x, y, Math.min(format.getTileWidth() * scale, p.getImageWidth() - x), Math.min(format.getTileHeight() * scale, p.getImageHeight() - y))
+                    && io.scaleImage(region, tile, width, height, scale);
+            io.release(region);
+        }
+        if (!done) {
+            new File(tile).delete();
+            throw new IOException("Couldn't generate tile " + file);
+        }
+        file.getParentFile().mkdirs();
+        processor.moveToTargetDir(new File(tile), file.getPath());
+        io.release(tile);
+        return cache.put(file);
+    }
+
+    /**
+     * A original image and the modification time it was loaded with.
+     */
+    private static class ServedImage {
+
+        private final OriginalImage image;
+        private final File source;
+        private final long lastModified;
+
+        ServedImage(OriginalImage image, File source, long lastModified) {
+            this.image = image;
+            this.source = source;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Starts a tile server. The processor uses one thread per processor (usableThreads -1),
+     * the server twice as many threads for the requests.
+     * @param args port, image lib, source directory, cache directory, memory cache size in MB, disk cache size in MB
+     */
+    public static void main(String[] args) {
+        if (args.length == 6) {
+            try {
+                JImagePyramideProcessor p = new JImagePyramideProcessor(args[1], "zoomify", -1, ".png");
+                TileServer server = new TileServer(p, new File(args[2]), new File(args[3]), Long.parseLong(args[4]) * 1024 * 1024, Long.parseLong(args[5]) * 1024 * 1024);
+                server.start(Integer.parseInt(args[0]), Runtime.getRuntime().availableProcessors() * 2);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        } else {
+            System.out.println("TileServer <port> <imgLib> <sourceDir> <cacheDir> <memoryMB> <diskMB>");
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.shard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import org.apache.commons.io.FilenameUtils;
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.imageformats.ImageFormat;
+import sebastian.hohns.imagezoom.images.OriginalImage;
+
+/**
+ * Splits the conversion of images into shards for ShardWorkers in other processes. A large
+ * image is split into row ranges of the original level and one shard per smaller level, a list
+ * of images into one shard per image. The coordinator writes the format meta data of a image
+ * once all its shards are done.
+ * @author Sebastian Hohns
+ */
+public class ShardCoordinator {
+
+    public static final long LEASE_TIMEOUT = 60000;
+    private static final long POLL_INTERVAL = 1000;
+    private JImagePyramideProcessor processor;
+    private ShardQueue queue;
+    private int rowsPerShard = 8;
+    private int shardCounter;
+    private List<PlannedImage> pending = new ArrayList<PlannedImage>();
+
+    /**
+     * @param processor processor used to plan the shards, the workers need the same target format
+     * @param queue shared queue
+     */
+    public ShardCoordinator(JImagePyramideProcessor processor, ShardQueue queue) {
+        this.processor = processor;
+        this.queue = queue;
+        queue.reopen();
+    }
+
+    /**
+     * Sets the number of rows of the original level converted by one shard.
+     * @param rowsPerShard number of rows
+     */
+    public void setRowsPerShard(int rowsPerShard) {
+        this.rowsPerShard = rowsPerShard;
+    }
+
+    /**
+     * Splits a image into shards. Every shard converts some rows of the original level or a whole
+     * smaller level, so every level is scaled only once.
+     * @param orgImage path to the original image
+     * @param targetPath target directory
+     * @throws IOException if a shard can't be queued
+     */
+    public void addImage(String orgImage, String targetPath) throws IOException {
+        PlannedImage image = plan(orgImage, targetPath);
+        if (image == null) {
+            return;
+        }
+
+        ImageFormat format = processor.getImageFormat();
+        for (int level = 0; level < image.levels; level++) {
+            int height = format.scaleDimension(image.height, image.levels - level);
+            image.shards.add(queue(orgImage, targetPath, level, 0, (int) Math.ceil(height / (double) format.getTileHeight())));
+        }
+        int rows = (int) Math.ceil(image.height / (double) format.getTileHeight());
+        for (int row = 0; row < rows; row += rowsPerShard) {
+            image.shards.add(queue(orgImage, targetPath, image.levels, row, row + rowsPerShard));
+        }
+        pending.add(image);
+    }
+
+    /**
+     * Adds one shard per image.
+     * @param images list of paths to the original images
+     * @param targetPath target directory
+     * @throws IOException if a shard can't be queued
+     */
+    public void addImages(List<String> images, String targetPath) throws IOException {
+        for (String orgImage : images) {
+            PlannedImage image = plan(orgImage, targetPath);
+            if (image != null) {
+                image.shards.add(queue(orgImage, targetPath, -1, 0, 0));
+                pending.add(image);
+            }
+        }
+    }
+
+    /**
+     * Waits until all shards are done, writes the meta data of every finished image and puts
+     * expired shards back into the queue. Finally tells the workers to stop. The meta data of a
+     * image with a failed shard isn't written.
+     * @return true if all images are converted, false if a shard failed
+     * @throws IOException if the queue can't be finished
+     * @throws InterruptedException
+     */
+    public boolean await() throws IOException, InterruptedException {
+        boolean result = true;
+        while (!pending.isEmpty()) {
+            queue.requeueExpired(LEASE_TIMEOUT);
+            for (Iterator<PlannedImage> i = pending.iterator(); i.hasNext();) {
+                PlannedImage image = i.next();
+                if (image.isFailed()) {
+                    result = false;
+                    i.remove();
+                } else if (image.isDone()) {
+                    processor.getImageFormat().generateXMLFile(image.targetDir, image.width, image.height, image.tileCount);
+                    i.remove();
+                }
+            }
+            if (!pending.isEmpty()) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+        }
+        queue.finish();
+        return result;
+    }
+
+    /**
+     * Determines the size of the image pyramide.
+     * @return the planned image, null if the image can't be read
+     */
+    private PlannedImage plan(String orgImage, String targetPath) {
+        File org = new File(orgImage);
+        if (!org.exists() || !org.canRead()) {
+            return null;
+        }
+        OriginalImage p = new OriginalImage(org, processor.getImageFormat(), processor.getImageOperations(), targetPath + File.separator + FilenameUtils.getBaseName(org.getName()));
+        processor.cleanup(p.getTempPath());
+
+        PlannedImage image = new PlannedImage();
+        image.targetDir = p.getTargetDir();
+        image.width = p.getImageWidth();
+        image.height = p.getImageHeight();
+        image.levels = p.getRequiredlevels();
+        image.tileCount = p.getTileCount();
+        return image;
+    }
+
+    private String queue(String orgImage, String targetPath, int level, int rowFrom, int rowTo) throws IOException {
+        Properties shard = new Properties();
+        shard.setProperty("image", new File(orgImage).getAbsolutePath());
+        shard.setProperty("target", new File(targetPath).getAbsolutePath());
+        shard.setProperty("level", String.valueOf(level));
+        shard.setProperty("rowFrom", String.valueOf(rowFrom));
+        shard.setProperty("rowTo", String.valueOf(rowTo));
+
+        //Shards are claimed in name order, the large levels first
+        String name = String.format("%08d", shardCounter++);
+        queue.add(name, shard);
+        return name;
+    }
+
+    /**
+     * A image split into shards.
+     */
+    private class PlannedImage {
+
+        private String targetDir;
+        private int width;
+        private int height;
+        private int levels;
+        private int tileCount;
+        private List<String> shards = new ArrayList<String>();
+
+        boolean isDone() {
+            for (String shard : shards) {
+                if (!queue.isDone(shard)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isFailed() {
+            for (String shard : shards) {
+                if (queue.isFailed(shard)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Splits images into shards and waits until the workers converted them. A single image is
+     * split into row ranges, several images into one shard per image.
+     * @param args queue directory, image lib, target format, target directory, images
+     */
+    public static void main(String[] args) {
+        if (args.length >= 5) {
+            JImagePyramideProcessor p = new JImagePyramideProcessor(args[1], args[2], 1, "jpg");
+            ShardCoordinator coordinator = new ShardCoordinator(p, new ShardQueue(new File(args[0])));
+            try {
+                if (args.length == 5) {
+                    coordinator.addImage(args[4], args[3]);
+                } else {
+                    coordinator.addImages(Arrays.asList(args).subList(4, args.length), args[3]);
+                }
+                coordinator.await();
+            } catch (IOException io) {
+                io.printStackTrace();
+            } catch (InterruptedException ie) {
+                ie.printStackTrace();
+            }
+            p.shutdown();
+        } else {
+            System.out.println("ShardCoordinator <queueDir> <imgLib> <targetFormat> <targetDir> <image>...");
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.shard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * A queue of shards in a directory shared by the coordinator and all workers. Every shard is a
+ * properties file, its state is the file extension: NAME.todo is waiting, NAME.lease is claimed
+ * by a worker, NAME.done is finished and NAME.failed couldn't be converted. The state changes
+ * by renaming the file, which is atomic, so exactly one worker wins a shard. Workers touch
+ * their lease regularly, the coordinator puts leases back into the queue if they expire.
+ * @author Sebastian Hohns
+ */
+public class ShardQueue {
+
+    public static final String TODO = ".todo";
+    public static final String LEASE = ".lease";
+    public static final String DONE = ".done";
+    public static final String FAILED = ".failed";
+    private static final String TMP = ".tmp";
+    private static final String FINISHED = "finished";
+    private File dir;
+
+    public ShardQueue(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+    }
+
+    /**
+     * Adds a shard to the queue.
+     * @param name unique name of the shard
+     * @param shard description of the shard
+     * @throws IOException if the shard can't be written
+     */
+    public void add(String name, Properties shard) throws IOException {
+        File tmp = new File(dir, name + TMP);
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            shard.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(dir, name + TODO))) {
+            throw new IOException("Shard " + name + " couldn't be queued");
+        }
+    }
+
+    /**
+     * Claims the next waiting shard.
+     * @return name of the shard, null if no shard is waiting
+     */
+    public String claim() {
+        String[] files = dir.list();
+        if (files == null) {
+            return null;
+        }
+        Arrays.sort(files);
+        for (String file : files) {
+            if (file.endsWith(TODO)) {
+                String name = file.substring(0, file.length() - TODO.length());
+                File lease = new File(dir, name + LEASE);
+                if (new File(dir, file).renameTo(lease)) {
+                    //A expired lease put back into the queue keeps its old time
+                    lease.setLastModified(System.currentTimeMillis());
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a claimed shard.
+     * @param name name of the shard
+     * @return description of the shard
+     * @throws IOException if the shard can't be read
+     */
+    public Properties read(String name) throws IOException {
+        Properties shard = new Properties();
+        InputStream in = new FileInputStream(new File(dir, name + LEASE));
+        try {
+            shard.load(in);
+        } finally {
+            in.close();
+        }
+        return shard;
+    }
+
+    /**
+     * Renews the lease of a claimed shard.
+     * @param name name of the shard
+     * @return false if the lease expired and the shard was put back into the queue
+     */
+    public boolean renew(String name) {
+        return new File(dir, name + LEASE).setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Marks a claimed shard as finished.
+     * @param name name of the shard
+     * @return false if the lease expired and the shard was put back into the queue
+     */
+    public boolean complete(String name) {
+        return new File(dir, name + LEASE).renameTo(new File(dir, name + DONE));
+    }
+
+    /**
+     * Marks a claimed shard as failed, it isn't claimed again.
+     * @param name name of the shard
+     * @return false if the lease expired and the shard was put back into the queue
+     */
+    public boolean fail(String name) {
+        return new File(dir, name + LEASE).renameTo(new File(dir, name + FAILED));
+    }
+
+    /**
+     * Puts all shards back into the queue whose lease wasn't renewed in time, their worker
+     * probably died.
+     * @param timeout lease timeout in milliseconds
+     */
+    public void requeueExpired(long timeout) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(LEASE) && System.currentTimeMillis() - file.lastModified() > timeout) {
+                String name = file.getName().substring(0, file.getName().length() - LEASE.length());
+                file.renameTo(new File(dir, name + TODO));
+            }
+        }
+    }
+
+    /**
+     * Determines if a shard is finished.
+     * @param name name of the shard
+     * @return true if finished, false else
+     */
+    public boolean isDone(String name) {
+        return new File(dir, name + DONE).exists();
+    }
+
+    /**
+     * Determines if a shard failed.
+     * @param name name of the shard
+     * @return true if failed, false else
+     */
+    public boolean isFailed(String name) {
+        return new File(dir, name + FAILED).exists();
+    }
+
+    /**
+     * Removes the shards and the finished marker of a earlier run, before new shards are added.
+     * Shard names are reused by every run.
+     */
+    public void reopen() {
+        new File(dir, FINISHED).delete();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TODO) || name.endsWith(LEASE) || name.endsWith(DONE) || name.endsWith(FAILED) || name.endsWith(TMP)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Tells the workers that no more shards will be added.
+     * @throws IOException if the marker can't be written
+     */
+    public void finish() throws IOException {
+        new File(dir, FINISHED).createNewFile();
+    }
+
+    /**
+     * Determines if the coordinator is finished, the workers stop then.
+     * @return true if finished, false else
+     */
+    public boolean isFinished() {
+        return new File(dir, FINISHED).exists();
+    }
+}
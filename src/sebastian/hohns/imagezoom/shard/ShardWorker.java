@@ -0,0 +1,100 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.shard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import sebastian.hohns.imagezoom.converter.PyramideJob;
+
+/**
+ * Converts shards claimed from a ShardQueue until the coordinator is finished. Start any number
+ * of workers, on one or several machines sharing the queue and target directory.
+ * @author Sebastian Hohns
+ */
+public class ShardWorker implements Runnable {
+
+    private static final long POLL_INTERVAL = 1000;
+    private JImagePyramideProcessor processor;
+    private ShardQueue queue;
+
+    /**
+     * @param processor processor converting the shards, use the same target format as the
+     * coordinator
+     * @param queue shared queue
+     */
+    public ShardWorker(JImagePyramideProcessor processor, ShardQueue queue) {
+        this.processor = processor;
+        this.queue = queue;
+    }
+
+    public void run() {
+        while (!queue.isFinished()) {
+            String name = queue.claim();
+            if (name == null) {
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                Properties shard = queue.read(name);
+                PyramideJob job = processor.submitShard(shard.getProperty("image"), shard.getProperty("target"),
+                        Integer.parseInt(shard.getProperty("level")), Integer.parseInt(shard.getProperty("rowFrom")), Integer.parseInt(shard.getProperty("rowTo")));
+                boolean leased = true;
+                if (job != null) {
+                    //Keep the lease while the shard is converted
+                    while (!job.await(ShardCoordinator.LEASE_TIMEOUT / 4, TimeUnit.MILLISECONDS)) {
+                        leased = queue.renew(name) && leased;
+                    }
+                }
+
+                //If the lease expired the shard is converted again by another worker, its
+                //lease must not be taken over
+                if (leased) {
+                    leased = job != null && job.isSuccessful() ? queue.complete(name) : queue.fail(name);
+                }
+                if (!leased) {
+                    System.err.println("Lease of shard " + name + " expired, it is converted again by another worker");
+                }
+            } catch (IOException io) {
+                io.printStackTrace();
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts a worker.
+     * @param args queue directory, image lib, target format, number of threads, tmp image format
+     */
+    public static void main(String[] args) {
+        if (args.length == 5) {
+            JImagePyramideProcessor p = new JImagePyramideProcessor(args[1], args[2], Integer.parseInt(args[3]), args[4]);
+            new ShardWorker(p, new ShardQueue(new File(args[0]))).run();
+            p.shutdown();
+        } else {
+            System.out.println("ShardWorker <queueDir> <imgLib> <targetFormat> <threads> <tmpImageFormat>");
+        }
+    }
+}
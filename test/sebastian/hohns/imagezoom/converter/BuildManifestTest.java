@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.converter;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the manifest matching and the replacement of a image by its staging directory.
+ * @author Sebastian Hohns
+ */
+public class BuildManifestTest {
+
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("manifest", "");
+        dir.delete();
+        dir.mkdirs();
+        target = new File(dir, "image");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void hash() throws IOException {
+        File file = new File(dir, "original.txt");
+        FileUtils.writeStringToFile(file, "abc");
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", BuildManifest.hash(file));
+    }
+
+    @Test
+    public void matches() throws IOException {
+        target.mkdirs();
+        assertFalse(BuildManifest.matches(target, "hash", "settings"));
+
+        BuildManifest.write(target, "original.png", "hash", "settings");
+        assertTrue(BuildManifest.matches(target, "hash", "settings"));
+        assertFalse(BuildManifest.matches(target, "other", "settings"));
+        assertFalse(BuildManifest.matches(target, "hash", "other"));
+
+        BuildManifest.delete(target);
+        assertFalse(BuildManifest.matches(target, "hash", "settings"));
+    }
+
+    @Test
+    public void stagingDir() {
+        File staging = BuildManifest.stagingDir(target);
+        assertEquals("image", staging.getName());
+        assertEquals(dir, staging.getParentFile().getParentFile());
+        assertFalse(staging.getPath().equals(BuildManifest.stagingDir(target).getPath()));
+    }
+
+    @Test
+    public void swap() throws IOException {
+        FileUtils.writeStringToFile(new File(target, "old.jpg"), "old");
+        File staging = BuildManifest.stagingDir(target);
+        FileUtils.writeStringToFile(new File(staging, "new.jpg"), "new");
+
+        BuildManifest.swap(staging, target);
+        assertFalse(new File(target, "old.jpg").exists());
+        assertEquals("new", FileUtils.readFileToString(new File(target, "new.jpg")));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void swapWithoutTarget() throws IOException {
+        File staging = BuildManifest.stagingDir(target);
+        FileUtils.writeStringToFile(new File(staging, "new.jpg"), "new");
+
+        BuildManifest.swap(staging, target);
+        assertTrue(new File(target, "new.jpg").exists());
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void discard() throws IOException {
+        target.mkdirs();
+        File staging = BuildManifest.stagingDir(target);
+        FileUtils.writeStringToFile(new File(staging, "new.jpg"), "new");
+
+        BuildManifest.discard(staging);
+        assertEquals(1, dir.list().length);
+        assertTrue(target.isDirectory());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Admits operations against a budget of 100 bytes and records the order they are started in.
+ * @author Sebastian Hohns
+ */
+public class MemoryAdmissionTest {
+
+    private MemoryAdmission admission = new MemoryAdmission(100);
+    private List<String> started = new ArrayList<String>();
+
+    private Runnable start(final String name) {
+        return new Runnable() {
+
+            public void run() {
+                started.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void startsWithinBudget() {
+        admission.admit(60, start("a"));
+        admission.admit(40, start("b"));
+        admission.admit(1, start("c"));
+        assertEquals(2, started.size());
+
+        admission.release(40);
+        assertEquals(3, started.size());
+        assertEquals("c", started.get(2));
+    }
+
+    @Test
+    public void largerThanBudgetRunsAlone() {
+        admission.admit(500, start("large"));
+        assertEquals(1, started.size());
+
+        admission.admit(10, start("small"));
+        assertEquals(1, started.size());
+        admission.release(500);
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void smallerPassesParked() {
+        admission.admit(60, start("a"));
+        admission.admit(60, start("large"));
+        admission.admit(30, start("small"));
+        assertEquals("small", started.get(1));
+
+        admission.release(30);
+        admission.release(60);
+        assertEquals("large", started.get(2));
+    }
+
+    @Test
+    public void parkedOperationDoesNotStarve() {
+        admission.admit(60, start("a"));
+        admission.admit(100, start("large"));
+        for (int i = 0; i < MemoryAdmission.MAX_BYPASSES; i++) {
+            admission.admit(30, start("small"));
+            admission.release(30);
+        }
+        assertEquals(1 + MemoryAdmission.MAX_BYPASSES, started.size());
+
+        //The large operation was passed often enough, the next small one waits behind it
+        admission.admit(30, start("late"));
+        assertEquals(1 + MemoryAdmission.MAX_BYPASSES, started.size());
+
+        admission.release(60);
+        assertEquals("large", started.get(started.size() - 1));
+        admission.release(100);
+        assertEquals("late", started.get(started.size() - 1));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the level arithmetic and tile paths of the DeepZoom format, which scales down to a
+ * single pixel and rounds up.
+ * @author Sebastian Hohns
+ */
+public class DeepZoomFormatTest {
+
+    private File dir;
+    private DeepZoomFormat format = new DeepZoomFormat();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("deepzoom", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void requiredLevels() {
+        assertEquals(0, format.getRequiredLevels(1, 1));
+        assertEquals(10, format.getRequiredLevels(1024, 600));
+        assertEquals(11, format.getRequiredLevels(1025, 600));
+    }
+
+    @Test
+    public void scaleDimension() {
+        assertEquals(1001, format.scaleDimension(1001, 0));
+        assertEquals(501, format.scaleDimension(1001, 1));
+        assertEquals(1, format.scaleDimension(1001, 10));
+    }
+
+    @Test
+    public void tilePath() {
+        String target = new File(dir, "image").getPath();
+        assertEquals(target + File.separator + "image_files" + File.separator + "10" + File.separator + "3_2.jpg",
+                format.getTilePath(target, 1000, 600, 10, 3, 2, 0));
+    }
+
+    @Test
+    public void createTileDirs() {
+        String target = new File(dir, "image").getPath();
+        format.createTileDirs(target, 1000, 600, 0);
+        for (int level = 0; level <= 10; level++) {
+            assertTrue(new File(target, "image_files" + File.separator + level).isDirectory());
+        }
+        assertFalse(new File(target, "image_files" + File.separator + "11").exists());
+    }
+}
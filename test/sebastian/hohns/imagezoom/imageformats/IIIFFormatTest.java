@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the region and size directories of the IIIF format for a 1000x600 image with
+ * 256 pixel tiles: level 0 is scaled by 4, level 1 by 2 and level 2 is the original.
+ * @author Sebastian Hohns
+ */
+public class IIIFFormatTest {
+
+    private File dir;
+    private IIIFFormat format = new IIIFFormat();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("iiif", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private String path(String region, String size) {
+        return dir.getPath() + File.separator + region + File.separator + size + File.separator + "0" + File.separator + "default.jpg";
+    }
+
+    @Test
+    public void requiredLevels() {
+        assertEquals(0, format.getRequiredLevels(256, 100));
+        assertEquals(2, format.getRequiredLevels(1000, 600));
+    }
+
+    @Test
+    public void tilePath() {
+        assertEquals(path("full", "250,"), format.getTilePath(dir.getPath(), 1000, 600, 0, 0, 0, 0));
+        assertEquals(path("512,512,488,88", "244,"), format.getTilePath(dir.getPath(), 1000, 600, 1, 1, 1, 0));
+        assertEquals(path("768,512,232,88", "232,"), format.getTilePath(dir.getPath(), 1000, 600, 2, 3, 2, 0));
+    }
+
+    @Test
+    public void tilePathDoesNotCreateDirectories() {
+        format.getTilePath(dir.getPath(), 1000, 600, 0, 0, 0, 0);
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void createTileDirs() {
+        format.createTileDirs(dir.getPath(), 1000, 600, 17);
+        assertEquals(1 + 4 + 12, dir.list().length);
+        assertTrue(new File(path("full", "250,")).getParentFile().isDirectory());
+        assertTrue(new File(path("512,512,488,88", "244,")).getParentFile().isDirectory());
+        assertTrue(new File(path("768,512,232,88", "232,")).getParentFile().isDirectory());
+    }
+
+    @Test
+    public void settingsContainTheBaseUri() {
+        assertFalse(format.getSettings().equals(new IIIFFormat(256, "http://example.org/iiif").getSettings()));
+        assertFalse(new IIIFFormat(256, "http://example.org/a").getSettings().equals(new IIIFFormat(256, "http://example.org/b").getSettings()));
+    }
+}
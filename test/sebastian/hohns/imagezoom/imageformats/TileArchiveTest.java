@@ -0,0 +1,115 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Writes tiles into a archive and reads them back with TileArchiveReader.
+ * @author Sebastian Hohns
+ */
+public class TileArchiveTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("archive", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, TileArchive.FILE_NAME);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File tileFile = new File(dir, "tile.jpg");
+        FileUtils.writeByteArrayToFile(tileFile, new byte[]{7, 8, 9, 10});
+
+        TileArchive archive = new TileArchive(file);
+        archive.addTile(0, 0, 0, new byte[]{1, 2, 3});
+        archive.addTile(1, 1, 0, new byte[0]);
+        archive.addTile(1, 0, 1, tileFile);
+        archive.close();
+
+        TileArchiveReader reader = new TileArchiveReader(file);
+        try {
+            assertEquals(3, reader.getTileCount());
+            assertArrayEquals(new byte[]{1, 2, 3}, reader.readTile(0, 0, 0));
+            assertArrayEquals(new byte[0], reader.readTile(1, 1, 0));
+            assertArrayEquals(new byte[]{7, 8, 9, 10}, reader.readTile(1, 0, 1));
+            assertNull(reader.readTile(1, 1, 1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void concurrentTiles() throws Exception {
+        final TileArchive archive = new TileArchive(file);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int level = t;
+            threads[t] = new Thread() {
+
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; i++) {
+                            archive.addTile(level, i, 0, new byte[]{(byte) level, (byte) i});
+                        }
+                    } catch (IOException io) {
+                        io.printStackTrace();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        archive.close();
+
+        TileArchiveReader reader = new TileArchiveReader(file);
+        try {
+            assertEquals(400, reader.getTileCount());
+            for (int level = 0; level < threads.length; level++) {
+                for (int i = 0; i < 100; i++) {
+                    assertArrayEquals(new byte[]{(byte) level, (byte) i}, reader.readTile(level, i, 0));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unclosedArchive() throws IOException {
+        new TileArchive(file).addTile(0, 0, 0, new byte[]{1});
+        new TileArchiveReader(file);
+    }
+}
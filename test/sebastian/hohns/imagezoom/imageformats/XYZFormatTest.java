@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the z/x/y tile paths of the XYZ format for a 1000x600 image: zoom 0 has 1 column,
+ * zoom 1 (500x300) 2 and zoom 2 (1000x600) 4 columns.
+ * @author Sebastian Hohns
+ */
+public class XYZFormatTest {
+
+    private File dir;
+    private XYZFormat format = new XYZFormat();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("xyz", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void requiredLevels() {
+        assertEquals(0, format.getRequiredLevels(256, 100));
+        assertEquals(2, format.getRequiredLevels(1000, 600));
+    }
+
+    @Test
+    public void scaleDimension() {
+        assertEquals(501, format.scaleDimension(1001, 1));
+        assertEquals(251, format.scaleDimension(1001, 2));
+    }
+
+    @Test
+    public void tilePath() {
+        assertEquals("target" + File.separator + "2" + File.separator + "3" + File.separator + "1.png",
+                format.getTilePath("target", 1000, 600, 2, 3, 1, 0));
+    }
+
+    @Test
+    public void createTileDirs() {
+        format.createTileDirs(dir.getPath(), 1000, 600, 0);
+        assertTrue(new File(dir, "0" + File.separator + "0").isDirectory());
+        assertFalse(new File(dir, "0" + File.separator + "1").exists());
+        assertTrue(new File(dir, "1" + File.separator + "1").isDirectory());
+        assertFalse(new File(dir, "1" + File.separator + "2").exists());
+        assertTrue(new File(dir, "2" + File.separator + "3").isDirectory());
+        assertFalse(new File(dir, "3").exists());
+    }
+}
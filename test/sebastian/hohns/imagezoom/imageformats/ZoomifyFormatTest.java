@@ -0,0 +1,58 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageformats;
+
+import java.io.File;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the level and tile group arithmetic of the zoomify format.
+ * @author Sebastian Hohns
+ */
+public class ZoomifyFormatTest {
+
+    private ZoomifyFormat format = new ZoomifyFormat();
+
+    @Test
+    public void requiredLevels() {
+        assertEquals(0, format.getRequiredLevels(256, 200));
+        assertEquals(1, format.getRequiredLevels(257, 200));
+        assertEquals(2, format.getRequiredLevels(1000, 600));
+    }
+
+    @Test
+    public void scaleDimension() {
+        assertEquals(1001, format.scaleDimension(1001, 0));
+        assertEquals(500, format.scaleDimension(1001, 1));
+        assertEquals(250, format.scaleDimension(1001, 2));
+    }
+
+    @Test
+    public void tileGroup() {
+        assertEquals("TileGroup0" + File.separator, format.getTileGroup("target", 0));
+        assertEquals("TileGroup0" + File.separator, format.getTileGroup("target", 255));
+        assertEquals("TileGroup1" + File.separator, format.getTileGroup("target", 256));
+        assertEquals("TileGroup3" + File.separator, format.getTileGroup("target", 1000));
+    }
+
+    @Test
+    public void tilePath() {
+        assertEquals("target" + File.separator + "TileGroup1" + File.separator + "5-3-2.jpg",
+                format.getTilePath("target", 10000, 8000, 5, 3, 2, 300));
+    }
+}
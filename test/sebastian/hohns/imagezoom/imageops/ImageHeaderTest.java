@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Reads the size of images written by ImageIO in every supported format.
+ * @author Sebastian Hohns
+ */
+public class ImageHeaderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("header", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private String write(String format) throws IOException {
+        File file = new File(dir, "image." + format);
+        assertTrue(ImageIO.write(new BufferedImage(123, 45, BufferedImage.TYPE_INT_RGB), format, file));
+        return file.getPath();
+    }
+
+    @Test
+    public void jpeg() throws IOException {
+        assertArrayEquals(new int[]{123, 45}, ImageHeader.readDimension(write("jpg")));
+    }
+
+    @Test
+    public void png() throws IOException {
+        assertArrayEquals(new int[]{123, 45}, ImageHeader.readDimension(write("png")));
+    }
+
+    @Test
+    public void tiff() throws IOException {
+        assertArrayEquals(new int[]{123, 45}, ImageHeader.readDimension(write("tif")));
+    }
+
+    @Test
+    public void gif() throws IOException {
+        assertArrayEquals(new int[]{123, 45}, ImageHeader.readDimension(write("gif")));
+    }
+
+    @Test
+    public void bmp() throws IOException {
+        assertArrayEquals(new int[]{123, 45}, ImageHeader.readDimension(write("bmp")));
+    }
+
+    @Test
+    public void unknownFormat() throws IOException {
+        File file = new File(dir, "image.txt");
+        FileUtils.writeStringToFile(file, "no image");
+        assertNull(ImageHeader.readDimension(file.getPath()));
+    }
+
+    @Test
+    public void truncatedHeader() throws IOException {
+        File file = new File(dir, "image.png");
+        FileUtils.writeByteArrayToFile(file, new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+        assertNull(ImageHeader.readDimension(file.getPath()));
+    }
+}
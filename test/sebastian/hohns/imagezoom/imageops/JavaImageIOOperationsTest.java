@@ -0,0 +1,107 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Scales and cuts a generated image with the pure Java backend.
+ * @author Sebastian Hohns
+ */
+public class JavaImageIOOperationsTest {
+
+    private File dir;
+    private String original;
+    private JavaImageIOOperations io;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("imageio", "");
+        dir.delete();
+        dir.mkdirs();
+        original = new File(dir, "original.png").getPath();
+        ImageIO.write(new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB), "png", new File(original));
+        io = new JavaImageIOOperations(".png");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void determineImageDimension() {
+        assertEquals("600x300", io.determineImageDimension(original));
+    }
+
+    @Test
+    public void scaleImage() throws IOException {
+        String target = new File(dir, "level.jpg").getPath();
+        assertTrue(io.scaleImage(original, target, 300, 150, 2));
+        BufferedImage level = ImageIO.read(new File(target));
+        assertEquals(300, level.getWidth());
+        assertEquals(150, level.getHeight());
+    }
+
+    @Test
+    public void cutTile() throws IOException {
+        String target = new File(dir, "tile.jpg").getPath();
+        assertTrue(io.cutTile(original, target, 256, 256, 2));
+        BufferedImage tile = ImageIO.read(new File(target));
+        assertEquals(600 - 2 * 256, tile.getWidth());
+        assertEquals(256, tile.getHeight());
+    }
+
+    @Test
+    public void cutTileOutsideTheRow() {
+        assertFalse(io.cutTile(original, new File(dir, "tile.jpg").getPath(), 256, 256, 3));
+    }
+
+    @Test
+    public void scaleImageReadsAChangedOriginal() throws IOException {
+        File file = new File(original);
+        ImageIO.write(filled(0xff0000), "png", file);
+        String target = new File(dir, "level.png").getPath();
+        assertTrue(io.scaleImage(original, target, 300, 150, 2));
+        assertEquals(0xff0000, ImageIO.read(new File(target)).getRGB(10, 10) & 0xffffff);
+
+        //Changed in place, a later edit has a later modification time
+        long lastModified = file.lastModified();
+        ImageIO.write(filled(0x0000ff), "png", file);
+        file.setLastModified(lastModified + 2000);
+        assertTrue(io.scaleImage(original, target, 300, 150, 2));
+        assertEquals(0x0000ff, ImageIO.read(new File(target)).getRGB(10, 10) & 0xffffff);
+    }
+
+    private static BufferedImage filled(int rgb) {
+        BufferedImage img = new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+}
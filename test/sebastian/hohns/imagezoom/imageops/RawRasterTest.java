@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Writes images with a distinct color per pixel as raw raster and reads regions back.
+ * @author Sebastian Hohns
+ */
+public class RawRasterTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("raster", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, pixel(x, y, type));
+            }
+        }
+        return img;
+    }
+
+    private static int pixel(int x, int y, int type) {
+        int alpha = type == BufferedImage.TYPE_INT_ARGB ? (x * 7 + y) & 0xff : 0xff;
+        return alpha << 24 | x << 16 | y << 8 | (x ^ y) & 0xff;
+    }
+
+    private static void assertRegion(BufferedImage region, int left, int top, int type) {
+        for (int y = 0; y < region.getHeight(); y++) {
+            for (int x = 0; x < region.getWidth(); x++) {
+                assertEquals(pixel(left + x, top + y, type), region.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void readRegionRgb() throws IOException {
+        File file = new File(dir, "level.raw");
+        RawRaster.write(image(100, 60, BufferedImage.TYPE_INT_RGB), file);
+
+        RawRaster raster = RawRaster.open(file);
+        assertEquals(100, raster.getWidth());
+        assertEquals(60, raster.getHeight());
+        assertEquals(BufferedImage.TYPE_INT_RGB, raster.getImageType());
+        assertRegion(raster.read(30, 10, 50, 40), 30, 10, BufferedImage.TYPE_INT_RGB);
+        assertRegion(raster.read(0, 0, 100, 60), 0, 0, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    public void readRegionArgb() throws IOException {
+        File file = new File(dir, "level.raw");
+        RawRaster.write(image(40, 30, BufferedImage.TYPE_INT_ARGB), file);
+
+        RawRaster raster = RawRaster.open(file);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, raster.getImageType());
+        assertRegion(raster.read(39, 29, 1, 1), 39, 29, BufferedImage.TYPE_INT_ARGB);
+        assertRegion(raster.read(5, 3, 20, 20), 5, 3, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Test
+    public void copyLines() throws IOException {
+        File file = new File(dir, "level.raw");
+        File row = new File(dir, "row.raw");
+        RawRaster.write(image(100, 60, BufferedImage.TYPE_INT_RGB), file).copyLines(20, 16, row);
+
+        RawRaster raster = RawRaster.open(row);
+        assertEquals(100, raster.getWidth());
+        assertEquals(16, raster.getHeight());
+        assertRegion(raster.read(0, 0, 100, 16), 0, 20, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test(expected = IOException.class)
+    public void readBeyondTheEnd() throws IOException {
+        File file = new File(dir, "level.raw");
+        RawRaster.write(image(10, 10, BufferedImage.TYPE_INT_RGB), file).read(0, 5, 10, 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void openOtherFile() throws IOException {
+        File file = new File(dir, "level.raw");
+        FileUtils.writeStringToFile(file, "no raster file");
+        RawRaster.open(file);
+    }
+
+    @Test
+    public void isRawRaster() {
+        assertTrue(RawRaster.isRawRaster("row-1.RAW"));
+        assertFalse(RawRaster.isRawRaster("row-1.png"));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.imageops;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Shares cores and memory between operations.
+ * @author Sebastian Hohns
+ */
+public class ResourceGovernorTest {
+
+    private ResourceGovernor governor = new ResourceGovernor(4, 4096L * 1024 * 1024);
+
+    @Test
+    public void singleThreadForTiles() {
+        assertEquals(1, governor.acquire(false));
+        assertEquals(1, governor.acquire(false));
+    }
+
+    @Test
+    public void wholeImageGetsFreeCores() {
+        assertEquals(1, governor.acquire(false));
+        assertEquals(3, governor.acquire(true));
+    }
+
+    @Test
+    public void wholeImageOperationsShareCores() {
+        ResourceGovernor eight = new ResourceGovernor(8, 0);
+        for (int i = 0; i < 6; i++) {
+            eight.acquire(false);
+        }
+        assertEquals(2, eight.acquire(true));
+        for (int i = 0; i < 6; i++) {
+            eight.release(1, false);
+        }
+        //Two whole image operations, half of the cores but one although 6 are free
+        assertEquals(3, eight.acquire(true));
+    }
+
+    @Test
+    public void tileDoesNotWaitForWholeImage() throws InterruptedException {
+        assertEquals(3, governor.acquire(true));
+
+        final int[] acquired = new int[1];
+        Thread tile = new Thread() {
+
+            public void run() {
+                acquired[0] = governor.acquire(false);
+            }
+        };
+        tile.start();
+        tile.join(5000);
+        assertFalse(tile.isAlive());
+        assertEquals(1, acquired[0]);
+    }
+
+    @Test
+    public void waitsForFreeCore() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            governor.acquire(false);
+        }
+
+        final int[] acquired = new int[1];
+        Thread waiting = new Thread() {
+
+            public void run() {
+                acquired[0] = governor.acquire(false);
+            }
+        };
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        governor.release(1, false);
+        waiting.join(5000);
+        assertFalse(waiting.isAlive());
+        assertEquals(1, acquired[0]);
+    }
+
+    @Test
+    public void wholeImageWaitsForItsCores() throws InterruptedException {
+        final int threads = governor.acquire(true);
+
+        final int[] acquired = new int[1];
+        Thread waiting = new Thread() {
+
+            public void run() {
+                acquired[0] = governor.acquire(true);
+            }
+        };
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        governor.release(threads, true);
+        waiting.join(5000);
+        assertFalse(waiting.isAlive());
+        assertEquals(3, acquired[0]);
+    }
+
+    @Test
+    public void limitArgs() {
+        assertEquals(Arrays.asList("-limit", "thread", "2", "-limit", "memory", "2048MB", "-limit", "map", "4096MB"),
+                governor.getLimitArgs(2, "thread"));
+        assertEquals(Arrays.asList("-limit", "threads", "1"),
+                new ResourceGovernor(4, 0).getLimitArgs(1, "threads"));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.images;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sebastian.hohns.imagezoom.imageformats.ZoomifyFormat;
+import sebastian.hohns.imagezoom.imageops.JavaImageIOOperations;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the tile numbering of a 1000x600 image in the zoomify format: level 0 has 1 tile,
+ * level 1 (500x300) 2x2 tiles and level 2 (1000x600) 4x3 tiles.
+ * @author Sebastian Hohns
+ */
+public class OriginalImageTest {
+
+    private File dir;
+    private OriginalImage image;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("original", "");
+        dir.delete();
+        dir.mkdirs();
+        File file = new File(dir, "image.png");
+        ImageIO.write(new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB), "png", file);
+        image = new OriginalImage(file, new ZoomifyFormat(), new JavaImageIOOperations(".png"), new File(dir, "image").getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(image.getTempPath()));
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void size() {
+        assertEquals(1000, image.getImageWidth());
+        assertEquals(600, image.getImageHeight());
+        assertEquals(2, image.getRequiredlevels());
+    }
+
+    @Test
+    public void tileCount() {
+        assertEquals(1 + 4 + 12, image.getTileCount());
+    }
+
+    @Test
+    public void tileIndex() {
+        assertEquals(0, image.getTileIndex(0, 0, 0));
+        assertEquals(1, image.getTileIndex(1, 0, 0));
+        assertEquals(4, image.getTileIndex(1, 1, 1));
+        assertEquals(5, image.getTileIndex(2, 0, 0));
+        assertEquals(9, image.getTileIndex(2, 0, 1));
+        assertEquals(16, image.getTileIndex(2, 3, 2));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sebastian.hohns.imagezoom.converter.JImagePyramideProcessor;
+import static org.junit.Assert.*;
+
+/**
+ * Generates tiles of a 600x300 image with the pure Java backend, without the http server.
+ * @author Sebastian Hohns
+ */
+public class TileServerTest {
+
+    private File dir;
+    private File original;
+    private JImagePyramideProcessor processor;
+    private TileServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("tileserver", "");
+        dir.delete();
+        new File(dir, "source").mkdirs();
+        original = new File(dir, "source" + File.separator + "img.png");
+        ImageIO.write(filled(0xff0000), "png", original);
+        processor = new JImagePyramideProcessor("java-imageio", "zoomify", 1, ".png");
+        server = new TileServer(processor, new File(dir, "source"), new File(dir, "cache"), 1024 * 1024, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        processor.shutdown();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void tileOutsideTheImage() throws Exception {
+        assertNull(server.getTile("img", 0, 2, 3, 0));
+        assertNull(server.getTile("missing", 0, 0, 0, 0));
+    }
+
+    @Test
+    public void changedOriginalIsServedAgain() throws Exception {
+        assertEquals(0xff0000, color(server.getTile("img", 0, 2, 0, 0)));
+        assertEquals(0xff0000, color(server.getTile("img", 0, 0, 0, 0)));
+
+        //Changed in place, a later edit has a later modification time
+        long lastModified = original.lastModified();
+        ImageIO.write(filled(0x0000ff), "png", original);
+        original.setLastModified(lastModified + 2000);
+        assertEquals(0x0000ff, color(server.getTile("img", 0, 2, 0, 0)));
+        assertEquals(0x0000ff, color(server.getTile("img", 0, 0, 0, 0)));
+    }
+
+    private static int color(byte[] tile) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(tile));
+        int rgb = img.getRGB(img.getWidth() / 2, img.getHeight() / 2);
+        //jpeg is lossy, round every channel to full or none
+        int color = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            if (((rgb >> shift) & 0xff) > 0x80) {
+                color |= 0xff << shift;
+            }
+        }
+        return color;
+    }
+
+    private static BufferedImage filled(int rgb) {
+        BufferedImage img = new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2009,2010 Sebastian Hohns.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sebastian.hohns.imagezoom.shard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Moves shards through the states of the queue.
+ * @author Sebastian Hohns
+ */
+public class ShardQueueTest {
+
+    private File dir;
+    private ShardQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("queue", "");
+        dir.delete();
+        queue = new ShardQueue(dir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static Properties shard(String level) {
+        Properties shard = new Properties();
+        shard.setProperty("level", level);
+        return shard;
+    }
+
+    @Test
+    public void claimInNameOrder() throws IOException {
+        queue.add("00000001", shard("1"));
+        queue.add("00000000", shard("0"));
+
+        assertEquals("00000000", queue.claim());
+        assertEquals("0", queue.read("00000000").getProperty("level"));
+        assertEquals("00000001", queue.claim());
+        assertNull(queue.claim());
+    }
+
+    @Test
+    public void complete() throws IOException {
+        queue.add("00000000", shard("0"));
+        String name = queue.claim();
+        assertFalse(queue.isDone(name));
+
+        assertTrue(queue.complete(name));
+        assertTrue(queue.isDone(name));
+        assertFalse(queue.isFailed(name));
+        assertNull(queue.claim());
+    }
+
+    @Test
+    public void fail() throws IOException {
+        queue.add("00000000", shard("0"));
+        String name = queue.claim();
+
+        assertTrue(queue.fail(name));
+        assertTrue(queue.isFailed(name));
+        assertFalse(queue.isDone(name));
+        assertNull(queue.claim());
+    }
+
+    @Test
+    public void requeueExpiredLease() throws IOException {
+        queue.add("00000000", shard("0"));
+        String name = queue.claim();
+
+        queue.requeueExpired(60000);
+        assertNull(queue.claim());
+
+        new File(dir, name + ShardQueue.LEASE).setLastModified(System.currentTimeMillis() - 120000);
+        queue.requeueExpired(60000);
+        assertFalse(queue.complete(name));
+        assertEquals(name, queue.claim());
+    }
+
+    @Test
+    public void renewKeepsTheLease() throws IOException {
+        queue.add("00000000", shard("0"));
+        String name = queue.claim();
+
+        new File(dir, name + ShardQueue.LEASE).setLastModified(System.currentTimeMillis() - 120000);
+        assertTrue(queue.renew(name));
+        queue.requeueExpired(60000);
+        assertTrue(queue.complete(name));
+    }
+
+    @Test
+    public void expiredLeaseIsLost() throws IOException {
+        queue.add("00000000", shard("0"));
+        String name = queue.claim();
+
+        new File(dir, name + ShardQueue.LEASE).setLastModified(System.currentTimeMillis() - 120000);
+        queue.requeueExpired(60000);
+        assertFalse(queue.renew(name));
+
+        //Claimed again by another worker, its lease is new
+        assertEquals(name, queue.claim());
+        queue.requeueExpired(60000);
+        assertTrue(queue.renew(name));
+    }
+
+    @Test
+    public void reopenRemovesEarlierRun() throws IOException {
+        queue.add("00000000", shard("0"));
+        queue.add("00000001", shard("1"));
+        queue.add("00000002", shard("2"));
+        queue.complete(queue.claim());
+        queue.fail(queue.claim());
+        queue.finish();
+        assertTrue(queue.isFinished());
+
+        queue.reopen();
+        assertFalse(queue.isFinished());
+        assertFalse(queue.isDone("00000000"));
+        assertFalse(queue.isFailed("00000001"));
+        assertNull(queue.claim());
+        assertEquals(0, dir.list().length);
+    }
+}